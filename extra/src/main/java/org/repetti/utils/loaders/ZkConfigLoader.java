@@ -0,0 +1,587 @@
+package org.repetti.utils.loaders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.JsonHelper;
+import org.repetti.utils.UtilsConstants;
+import org.repetti.utils.UtilsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Config backed by a ZooKeeper subtree: children of the root znode are the keys, data of a leaf znode (UTF-8) is the
+ * value, a znode with children is a nested config. Leaf values holding JSON can be read with getJson, getConfig and
+ * getConfigs as in {@link PropertyConfigLoader}.
+ * <p/>
+ * The subtree is mirrored in memory and reads never go to the server. The initial load issues asynchronous requests
+ * for all znodes of a level at once instead of a round trip per znode. Every znode is watched, changes of data and
+ * of children are applied to the mirror as they are notified. If the session is lost the last known state is served.
+ * <p/>
+ * Nested configs returned by getConfig are live views of the mirror.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class ZkConfigLoader extends ConfigLoader implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ZkConfigLoader.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Mirror mirror;
+    private final Node node;
+
+    /**
+     * Loads the subtree and keeps it updated, the connection is owned by the caller
+     *
+     * @param timeout milliseconds to wait for the initial load
+     * @throws UtilsException if the root doesn't exist or the load didn't finish in time
+     */
+    public ZkConfigLoader(@NotNull ZooKeeper zk, @NotNull String root, long timeout) throws UtilsException {
+        this(new Mirror(zk, root, false), timeout);
+    }
+
+    private ZkConfigLoader(Mirror mirror, long timeout) throws UtilsException {
+        this.mirror = mirror;
+        this.node = mirror.load(timeout);
+    }
+
+    private ZkConfigLoader(Mirror mirror, Node node) {
+        this.mirror = mirror;
+        this.node = node;
+    }
+
+    /**
+     * Connects with parameters {@link UtilsConstants#ZK_CONNECTION}, {@link UtilsConstants#ZK_TIMEOUT} (session, ms),
+     * {@link UtilsConstants#ZK_TIMEOUT_CONNECT} (ms) and loads the subtree at
+     * {@link UtilsConstants#ZK_PATH_CONFIGURATION}. The connection is closed by {@link #close()}.
+     */
+    @NotNull
+    public static ZkConfigLoader connect(@NotNull ConfigLoader config) throws UtilsException {
+        final String connection = config.getString(UtilsConstants.ZK_CONNECTION);
+        final int timeout = config.getInteger(UtilsConstants.ZK_TIMEOUT);
+        final int timeoutConnect = config.getInteger(UtilsConstants.ZK_TIMEOUT_CONNECT);
+        final String root = config.getString(UtilsConstants.ZK_PATH_CONFIGURATION);
+        final CountDownLatch connected = new CountDownLatch(1);
+        final ZooKeeper zk;
+        try {
+            zk = new ZooKeeper(connection, timeout, new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    if (event.getState() == Event.KeeperState.SyncConnected) {
+                        connected.countDown();
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "can't connect to " + connection, e);
+        }
+        try {
+            if (!connected.await(timeoutConnect, TimeUnit.MILLISECONDS)) {
+                throw new UtilsException(UtilsException.Type.CONNECTION, "not connected to " + connection
+                        + " in " + timeoutConnect + " ms", null);
+            }
+            return new ZkConfigLoader(new Mirror(zk, root, true), timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close(zk);
+            throw new UtilsException(UtilsException.Type.CONNECTION, "interrupted connecting to " + connection, e);
+        } catch (UtilsException e) {
+            close(zk);
+            throw e;
+        }
+    }
+
+    private static void close(ZooKeeper zk) {
+        try {
+            zk.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops watching, closes the connection if it was opened by {@link #connect(ConfigLoader)}
+     */
+    @Override
+    public void close() {
+        mirror.closed = true;
+        if (mirror.ownConnection) {
+            close(mirror.zk);
+        }
+    }
+
+    /**
+     * @return absolute path of the znode of this config
+     */
+    @NotNull
+    public String getPath() {
+        return node.path;
+    }
+
+    private Node child(String key) {
+        return key == null ? null : node.children.get(key);
+    }
+
+    private Node existing(String key) throws UtilsException {
+        final Node ret = child(key);
+        if (ret == null) {
+            throw getException(ExceptionType.NOT_FOUND, key);
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean has(String key) {
+        return child(key) != null;
+    }
+
+    @Override
+    public boolean isNull(String key, boolean throwException) throws UtilsException {
+        final Node n = child(key);
+        if (n == null) {
+            if (throwException) {
+                throw getException(ExceptionType.NOT_FOUND, key);
+            }
+            return true;
+        }
+        return n.value.text == null && n.children.isEmpty();
+    }
+
+    @Override
+    public boolean isString(String key, boolean throwException) throws UtilsException {
+        final Node n = child(key);
+        if (n == null) {
+            if (throwException) {
+                throw getException(ExceptionType.NOT_FOUND, key);
+            }
+            return false;
+        }
+        return n.value.text != null && n.children.isEmpty();
+    }
+
+    @Override
+    public List<ConfigLoader> getConfigs(String key, boolean throwException) throws UtilsException {
+        final Node n = child(key);
+        if (n == null) {
+            if (throwException) {
+                throw getException(ExceptionType.NOT_FOUND, key);
+            }
+            return null;
+        }
+        final List<ConfigLoader> ret = new ArrayList<ConfigLoader>();
+        if (!n.children.isEmpty()) {
+            // children in the order of their names
+            for (Node c : new TreeMap<String, Node>(n.children).values()) {
+                final ConfigLoader config = config(c);
+                if (config == null) {
+                    if (throwException) {
+                        throw getException(ExceptionType.CAST, c.path);
+                    }
+                    return null;
+                }
+                ret.add(config);
+            }
+            return ret;
+        }
+        final JsonNode json = n.value.json();
+        if (!json.isArray()) {
+            if (throwException) {
+                throw getException(ExceptionType.CAST, key);
+            }
+            return null;
+        }
+        for (JsonNode tmp : json) {
+            if (!tmp.isObject()) {
+                if (throwException) {
+                    throw getException(ExceptionType.CAST, tmp);
+                }
+                return null;
+            }
+            ret.add(new JsonConfigLoader((ObjectNode) tmp));
+        }
+        return ret;
+    }
+
+    /**
+     * @return view of a znode with children, config of a JSON object value, otherwise null
+     */
+    private ConfigLoader config(Node n) throws UtilsException {
+        if (!n.children.isEmpty()) {
+            return new ZkConfigLoader(mirror, n);
+        }
+        final JsonNode json = n.value.json();
+        return json.isObject() ? new JsonConfigLoader((ObjectNode) json) : null;
+    }
+
+    /**
+     * @return values of the children in the order of their names, or the single value of a leaf
+     */
+    @Override
+    public List<String> getStrings(String key) throws UtilsException {
+        final Node n = existing(key);
+        if (n.children.isEmpty()) {
+            return Arrays.asList(n.value.text);
+        }
+        final List<String> ret = new ArrayList<String>();
+        for (Node c : new TreeMap<String, Node>(n.children).values()) {
+            ret.add(c.value.text);
+        }
+        return ret;
+    }
+
+    @Override
+    public int getInteger(String key) throws UtilsException {
+        final String s = existing(key).value.text;
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw getException(ExceptionType.PARSING, key);
+        }
+    }
+
+    @Override
+    public int getIntegerSafe(String key, int defaultValue) {
+        final Node n = child(key);
+        if (n == null || n.value.text == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(n.value.text);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return object of the children for znodes with children, value parsed as JSON or as text otherwise
+     */
+    @Override
+    public JsonNode getJson(String key, boolean throwException) throws UtilsException {
+        final Node n = child(key);
+        if (n == null) {
+            if (throwException) {
+                throw getException(ExceptionType.NOT_FOUND, key);
+            }
+            return NullNode.getInstance();
+        }
+        return json(n);
+    }
+
+    private static JsonNode json(Node n) {
+        if (n.children.isEmpty()) {
+            return n.value.json();
+        }
+        final ObjectNode ret = JsonNodeFactory.instance.objectNode();
+        for (Map.Entry<String, Node> e : new TreeMap<String, Node>(n.children).entrySet()) {
+            ret.set(e.getKey(), json(e.getValue()));
+        }
+        return ret;
+    }
+
+    @Override
+    public ConfigLoader getConfig(String key) throws UtilsException {
+        final ConfigLoader ret = config(existing(key));
+        if (ret == null) {
+            throw getException(ExceptionType.CAST, key);
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean getBoolean(String key) throws UtilsException {
+        return Boolean.parseBoolean(existing(key).value.text);
+    }
+
+    @Override
+    public String getString(String key) throws UtilsException {
+        return existing(key).value.text;
+    }
+
+    @Override
+    public String getStringSafe(String key) {
+        final Node n = child(key);
+        return n == null ? null : n.value.text;
+    }
+
+    @Override
+    public boolean getBooleanSafe(String key, boolean defaultValue) {
+        final Node n = child(key);
+        if (n == null || n.value.text == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(n.value.text);
+    }
+
+    /**
+     * @return text of a leaf, nested config as an object node
+     */
+    @Override
+    public Object findValue(String key) {
+        final Node n = child(key);
+        if (n == null) {
+            return null;
+        }
+        if (n.children.isEmpty()) {
+            return n.value.text == null ? NullNode.getInstance() : n.value.text;
+        }
+        return json(n);
+    }
+
+    @Override
+    public Integer findInteger(String key) {
+        final Node n = child(key);
+        if (n == null || n.value.text == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(n.value.text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Boolean findBoolean(String key) {
+        final Node n = child(key);
+        return n == null || n.value.text == null ? null : Boolean.parseBoolean(n.value.text);
+    }
+
+    @Override
+    public Set<String> getFieldNames() {
+        return Collections.unmodifiableSet(new HashSet<String>(node.children.keySet()));
+    }
+
+    @Override
+    public String toString() {
+        return "ZkConfigLoader{" + node.path + '}';
+    }
+
+    /**
+     * Data of a znode, JSON is parsed on first use
+     */
+    private static class Value {
+        private static final Value EMPTY = new Value(null);
+        private final String text;
+        private volatile JsonNode json;
+
+        private Value(String text) {
+            this.text = text;
+        }
+
+        /**
+         * @return parsed value, text node if it isn't JSON, null node for empty znodes
+         */
+        private JsonNode json() {
+            JsonNode ret = json;
+            if (ret == null) {
+                if (text == null) {
+                    ret = NullNode.getInstance();
+                } else {
+                    try {
+                        ret = JsonHelper.parse(text);
+                    } catch (UtilsException e) {
+                        ret = null;
+                    }
+                    if (ret == null) {
+                        ret = TextNode.valueOf(text);
+                    }
+                }
+                json = ret;
+            }
+            return ret;
+        }
+    }
+
+    private static class Node {
+        private final String path;
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<String, Node>();
+        private volatile Value value = Value.EMPTY;
+
+        private Node(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * In memory copy of the subtree, updated by callbacks of asynchronous requests and by watches
+     */
+    private static class Mirror implements Watcher, AsyncCallback.DataCallback, AsyncCallback.ChildrenCallback {
+        private final ZooKeeper zk;
+        private final String root;
+        private final boolean ownConnection;
+        private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+        /**
+         * Requests of the initial load not answered yet
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private volatile KeeperException.Code rootError;
+        private volatile boolean closed;
+
+        private Mirror(ZooKeeper zk, String root, boolean ownConnection) {
+            this.zk = zk;
+            this.root = root.length() > 1 && root.endsWith("/") ? root.substring(0, root.length() - 1) : root;
+            this.ownConnection = ownConnection;
+        }
+
+        private Node load(long timeout) throws UtilsException {
+            final Node ret = new Node(root);
+            nodes.put(root, ret);
+            request(root);
+            try {
+                if (!loaded.await(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new UtilsException(UtilsException.Type.CONNECTION, "config " + root + " not loaded in "
+                            + timeout + " ms", null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UtilsException(UtilsException.Type.CONNECTION, "interrupted loading " + root, e);
+            }
+            if (rootError != null) {
+                throw new UtilsException(rootError == KeeperException.Code.NONODE ? UtilsException.Type.NOT_FOUND
+                        : UtilsException.Type.CONNECTION, "can't load " + root + ": " + rootError, null);
+            }
+            return ret;
+        }
+
+        /**
+         * Requests data and children of the znode with watches, replies are handled asynchronously
+         */
+        private void request(String path) {
+            pending.addAndGet(2);
+            zk.getData(path, this, this, null);
+            zk.getChildren(path, this, this, null);
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() == 0) {
+                loaded.countDown();
+            }
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            try {
+                final Node n = nodes.get(path);
+                if (n == null) {
+                    return;
+                }
+                final KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code == KeeperException.Code.OK) {
+                    n.value = data == null || data.length == 0 ? Value.EMPTY : new Value(new String(data, UTF8));
+                } else {
+                    failed(path, code);
+                }
+            } finally {
+                done();
+            }
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            try {
+                final Node n = nodes.get(path);
+                if (n == null) {
+                    return;
+                }
+                final KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code != KeeperException.Code.OK) {
+                    failed(path, code);
+                    return;
+                }
+                for (String name : children) {
+                    if (!n.children.containsKey(name)) {
+                        final String childPath = path.equals("/") ? "/" + name : path + "/" + name;
+                        final Node child = new Node(childPath);
+                        nodes.put(childPath, child);
+                        request(childPath);
+                        n.children.put(name, child);
+                    }
+                }
+                for (String name : n.children.keySet()) {
+                    if (!children.contains(name)) {
+                        remove(n.children.remove(name));
+                    }
+                }
+            } finally {
+                done();
+            }
+        }
+
+        private void failed(String path, KeeperException.Code code) {
+            if (path.equals(root)) {
+                rootError = code;
+            }
+            if (code == KeeperException.Code.NONODE) {
+                // deleted meanwhile, the watch of the parent removes it
+                log.debug("{} doesn't exist", path);
+            } else {
+                log.warn("can't read {}: {}", path, code);
+            }
+        }
+
+        private void remove(Node n) {
+            if (n == null) {
+                return;
+            }
+            nodes.remove(n.path);
+            for (Node c : n.children.values()) {
+                remove(c);
+            }
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (closed) {
+                return;
+            }
+            final String path = event.getPath();
+            if (path == null || !nodes.containsKey(path)) {
+                if (event.getState() == Event.KeeperState.Expired) {
+                    log.warn("session expired, config {} is not updated any more", root);
+                }
+                return;
+            }
+            switch (event.getType()) {
+                case NodeDataChanged:
+                    pending.incrementAndGet();
+                    zk.getData(path, this, this, null);
+                    break;
+                case NodeChildrenChanged:
+                    pending.incrementAndGet();
+                    zk.getChildren(path, this, this, null);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
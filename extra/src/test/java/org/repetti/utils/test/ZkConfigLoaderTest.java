@@ -0,0 +1,158 @@
+package org.repetti.utils.test;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.UtilsConstants;
+import org.repetti.utils.UtilsException;
+import org.repetti.utils.loaders.ZkConfigLoader;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs against an in-process ZooKeeper server
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class ZkConfigLoaderTest {
+    private File dir;
+    private NIOServerCnxnFactory factory;
+    private ZooKeeper zk;
+    private String connection;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("zookeeper", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        final ZooKeeperServer server = new ZooKeeperServer(dir, dir, 2000);
+        factory = new NIOServerCnxnFactory();
+        factory.configure(new InetSocketAddress("127.0.0.1", 0), 10);
+        factory.startup(server);
+        connection = "127.0.0.1:" + factory.getLocalPort();
+        zk = new ZooKeeper(connection, 10000, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+            }
+        });
+        create("/app", null);
+        create("/app/name", "main");
+        create("/app/port", "8080");
+        create("/app/db", null);
+        create("/app/db/host", "h");
+        create("/app/db/port", "1");
+        create("/app/json", "{\"x\":1}");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        zk.close();
+        factory.shutdown();
+        delete(dir);
+    }
+
+    private void create(String path, String data) throws Exception {
+        zk.create(path, data == null ? null : data.getBytes("UTF-8"), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    private static void delete(File f) {
+        final File[] files = f.listFiles();
+        if (files != null) {
+            for (File t : files) {
+                delete(t);
+            }
+        }
+        f.delete();
+    }
+
+    /**
+     * Watches are asynchronous
+     */
+    private static void waitFor(ConfigLoader config, String key, String expected) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            final String value = config.getStringSafe(key);
+            if (expected == null ? value == null && !config.has(key) : expected.equals(value)) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail(key + " is " + config.getStringSafe(key) + ", expected " + expected);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        ZkConfigLoader config = new ZkConfigLoader(zk, "/app", 10000);
+        assertEquals(new HashSet<String>(Arrays.asList("name", "port", "db", "json")), config.getFieldNames());
+        assertEquals("main", config.getString("name"));
+        assertEquals(8080, config.getInteger("port"));
+        assertEquals("h", config.getConfig("db").getString("host"));
+        assertEquals(1, config.getConfig("db").getInteger("port"));
+        assertEquals(1, config.getConfig("json").getInteger("x"));
+        assertEquals(1, config.getJson("db", true).get("port").asInt());
+        assertEquals(7, config.getIntegerSafe("missing", 7));
+        assertFalse(config.has("missing"));
+
+        try {
+            new ZkConfigLoader(zk, "/missing", 10000);
+            fail();
+        } catch (UtilsException e) {
+            assertEquals(UtilsException.Type.NOT_FOUND, e.type);
+        }
+    }
+
+    @Test
+    public void testWatches() throws Exception {
+        ZkConfigLoader config = new ZkConfigLoader(zk, "/app", 10000);
+        ConfigLoader db = config.getConfig("db");
+
+        zk.setData("/app/name", "changed".getBytes("UTF-8"), -1);
+        waitFor(config, "name", "changed");
+
+        create("/app/added", "new");
+        waitFor(config, "added", "new");
+
+        create("/app/db/user", "u");
+        waitFor(db, "user", "u");
+
+        zk.delete("/app/port", -1);
+        waitFor(config, "port", null);
+
+        zk.setData("/app/added", "again".getBytes("UTF-8"), -1);
+        waitFor(config, "added", "again");
+    }
+
+    @Test
+    public void testConnect() throws Exception {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(UtilsConstants.ZK_CONNECTION, connection);
+        params.put(UtilsConstants.ZK_TIMEOUT, 10000);
+        params.put(UtilsConstants.ZK_TIMEOUT_CONNECT, 10000);
+        params.put(UtilsConstants.ZK_PATH_CONFIGURATION, "/app/db");
+        ZkConfigLoader config = ZkConfigLoader.connect(ConfigLoader.loadMap(params));
+        try {
+            assertEquals("h", config.getString("host"));
+            assertEquals("/app/db", config.getPath());
+        } finally {
+            config.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.repetti.utils;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous variant of {@link MongoExecutor}: calls run on a dedicated pool and return {@link CompletableFuture}s
+ * completed with the result or with the {@link DatabaseException}.
+ * <p/>
+ * At most {@code maxInFlight} calls are queued or running. A further call waits up to the admission timeout for one to
+ * complete, so a slow database slows the callers down instead of piling up work; if none completes in time the
+ * returned future fails with {@link RejectedExecutionException}. Calls made from the pool itself (continuations of
+ * returned futures, e.g. {@code getRecord(...).thenCompose(r -> update(...))}) never wait: a pool thread waiting for
+ * a permit held by a call queued behind it would deadlock, so they are rejected at once when the limit is reached.
+ * <p/>
+ * Blocking calls are made by protected methods which can be overridden, e.g. to run load tests against an in-memory
+ * store. {@link #close()} waits for running calls.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class AsyncMongoExecutor implements AutoCloseable {
+    public static final long DEFAULT_ADMISSION_TIMEOUT_MILLIS = 10_000;
+
+    private final ExecutorService pool;
+    private final Semaphore inFlight;
+    private final long admissionTimeout;
+    /**
+     * Set on the threads of the pool
+     */
+    private final ThreadLocal<Boolean> poolThread = new ThreadLocal<>();
+
+    /**
+     * @param threads     number of threads calling the database
+     * @param maxInFlight number of calls queued or running at once
+     */
+    public AsyncMongoExecutor(int threads, int maxInFlight) {
+        this(threads, maxInFlight, DEFAULT_ADMISSION_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param admissionTimeout milliseconds a call waits for a free slot before its future is rejected
+     */
+    public AsyncMongoExecutor(int threads, int maxInFlight, long admissionTimeout) {
+        final NamedThreadFactory factory = new NamedThreadFactory(AsyncMongoExecutor.class);
+        this.pool = Executors.newFixedThreadPool(threads, r -> factory.newThread(() -> {
+            poolThread.set(Boolean.TRUE);
+            r.run();
+        }));
+        this.inFlight = new Semaphore(maxInFlight);
+        this.admissionTimeout = admissionTimeout;
+    }
+
+    @NotNull
+    public CompletableFuture<DBObject> getRecord(@NotNull DBCollection dbCollection, @NotNull String id, @NotNull String... fields) {
+        return submit(() -> doGetRecord(dbCollection, id, fields));
+    }
+
+    @NotNull
+    public CompletableFuture<Object> getObject(@NotNull DBCollection dbCollection, @NotNull String id, String field) {
+        return submit(() -> doGetRecord(dbCollection, id, field).get(field));
+    }
+
+    @NotNull
+    public CompletableFuture<List<String>> findIds(@NotNull DBCollection dbCollection, @NotNull BasicDBObject query) {
+        return submit(() -> doFindIds(dbCollection, query));
+    }
+
+    @NotNull
+    public CompletableFuture<DBObject> put(@NotNull DBCollection dbCollection, @NotNull DBObject object) {
+        return submit(() -> doPut(dbCollection, object));
+    }
+
+    @NotNull
+    public CompletableFuture<Void> update(@NotNull DBCollection dbCollection, @NotNull String id, @NotNull BasicDBObject record) {
+        return submit(() -> {
+            doUpdate(dbCollection, id, record);
+            return null;
+        });
+    }
+
+    protected DBObject doGetRecord(DBCollection dbCollection, String id, String... fields) throws DatabaseException {
+        return MongoExecutor.getRecord(dbCollection, id, fields);
+    }
+
+    protected List<String> doFindIds(DBCollection dbCollection, BasicDBObject query) throws DatabaseException {
+        return MongoExecutor.findIds(dbCollection, query);
+    }
+
+    protected DBObject doPut(DBCollection dbCollection, DBObject object) throws DatabaseException {
+        return MongoExecutor.put(dbCollection, object);
+    }
+
+    protected void doUpdate(DBCollection dbCollection, String id, BasicDBObject record) throws DatabaseException {
+        MongoExecutor.update(dbCollection, id, record);
+    }
+
+    /**
+     * @return number of calls which can be submitted without waiting
+     */
+    public int getAvailable() {
+        return inFlight.availablePermits();
+    }
+
+    private <T> CompletableFuture<T> submit(Call<T> call) {
+        final CompletableFuture<T> ret = new CompletableFuture<>();
+        try {
+            final boolean admitted = poolThread.get() != null
+                    ? inFlight.tryAcquire()
+                    : inFlight.tryAcquire(admissionTimeout, TimeUnit.MILLISECONDS);
+            if (!admitted) {
+                ret.completeExceptionally(new RejectedExecutionException("too many calls in flight"));
+                return ret;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ret.completeExceptionally(e);
+            return ret;
+        }
+        try {
+            pool.execute(() -> {
+                // the slot is free before dependent stages run, they may submit calls themselves
+                final T result;
+                try {
+                    result = call.call();
+                } catch (Throwable e) {
+                    inFlight.release();
+                    ret.completeExceptionally(e);
+                    return;
+                }
+                inFlight.release();
+                ret.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            ret.completeExceptionally(e);
+        }
+        return ret;
+    }
+
+    /**
+     * Waits for running calls, returns early with the interrupt flag set if the thread is interrupted
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws DatabaseException;
+    }
+}
@@ -0,0 +1,108 @@
+package org.repetti.utils.task;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.repetti.utils.AsyncMongoExecutor;
+import org.repetti.utils.DatabaseException;
+import org.repetti.utils.UtilsConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of {@link AsyncMongoExecutor} against an in-memory store with simulated latency, no database needed.
+ * <p/>
+ * Parameters: [threads, default 16] [max in flight, default 64] [requests, default 20000] [latency ms, default 2]
+ * <p/>
+ * Date: 17/10/26
+ */
+public class AsyncMongoBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        final int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        final long latency = args.length > 3 ? Long.parseLong(args[3]) : 2;
+
+        try (InMemory executor = new InMemory(threads, maxInFlight, latency)) {
+            // the store ignores the collection
+            final DBCollection collection = null;
+            final long start = System.nanoTime();
+            final List<CompletableFuture<?>> futures = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                final String id = "id" + (i % 1000);
+                if (i % 4 == 0) {
+                    futures.add(executor.update(collection, id, new BasicDBObject("n", i)));
+                } else {
+                    futures.add(executor.getObject(collection, id, "n").exceptionally(e -> null));
+                }
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+            final long ms = (System.nanoTime() - start) / 1000_000L;
+            System.out.println(requests + " requests in " + ms + " ms, " + requests * 1000L / Math.max(ms, 1)
+                    + " per second, max in flight " + executor.maxSeen.get() + " (limit " + maxInFlight + ")");
+        }
+    }
+
+    private static class InMemory extends AsyncMongoExecutor {
+        private final ConcurrentMap<String, BasicDBObject> store = new ConcurrentHashMap<>();
+        private final long latency;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxSeen = new AtomicInteger();
+
+        private InMemory(int threads, int maxInFlight, long latency) {
+            super(threads, maxInFlight);
+            this.latency = latency;
+        }
+
+        private void enter() {
+            maxSeen.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected DBObject doGetRecord(DBCollection dbCollection, String id, String... fields) throws DatabaseException {
+            enter();
+            final BasicDBObject ret = store.get(id);
+            if (ret == null) {
+                throw new DatabaseException(DatabaseException.Type.NOT_FOUND, "document not found", null);
+            }
+            return ret;
+        }
+
+        @Override
+        protected List<String> doFindIds(DBCollection dbCollection, BasicDBObject query) {
+            enter();
+            return new ArrayList<>(store.keySet());
+        }
+
+        @Override
+        protected DBObject doPut(DBCollection dbCollection, DBObject object) {
+            enter();
+            store.put((String) object.get(UtilsConstants.MONGO_PRIMARY_KEY), new BasicDBObject(object.toMap()));
+            return object;
+        }
+
+        @Override
+        protected void doUpdate(DBCollection dbCollection, String id, BasicDBObject record) {
+            enter();
+            // documents are replaced, never modified in place
+            store.compute(id, (k, v) -> {
+                final BasicDBObject ret = v == null ? new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY, k)
+                        : new BasicDBObject(v.toMap());
+                ret.putAll(record.toMap());
+                return ret;
+            });
+        }
+    }
+}
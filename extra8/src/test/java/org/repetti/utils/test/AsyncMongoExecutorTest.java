@@ -0,0 +1,143 @@
+package org.repetti.utils.test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.junit.Test;
+import org.repetti.utils.AsyncMongoExecutor;
+import org.repetti.utils.DatabaseException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Admission of calls with one thread and one slot, the database is replaced by overridden methods
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class AsyncMongoExecutorTest {
+    private static final long ADMISSION_TIMEOUT = 200;
+    // the store ignores the collection
+    private static final DBCollection collection = null;
+
+    @Test
+    public void testContinuationDoesNotHang() throws Exception {
+        try (Blocking executor = new Blocking()) {
+            executor.gate.countDown();
+            final CompletableFuture<Void> chain = executor.getRecord(collection, "a")
+                    .thenCompose(r -> executor.update(collection, "a", new BasicDBObject("n", 1)))
+                    .thenCompose(v -> executor.getRecord(collection, "a"))
+                    .thenCompose(r -> executor.update(collection, "a", new BasicDBObject("n", 2)));
+            try {
+                chain.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            } catch (TimeoutException e) {
+                fail("continuation is waiting for a slot");
+            }
+            assertEquals(1, executor.getAvailable());
+        }
+    }
+
+    @Test
+    public void testPoolCallRejectedWhenFull() throws Exception {
+        try (Blocking executor = new Blocking()) {
+            executor.gate.countDown();
+            // the call made by the running one finds the only slot taken, waiting would deadlock
+            final long start = System.nanoTime();
+            final DBObject r = executor.getRecord(collection, "nested").get(5, TimeUnit.SECONDS);
+            assertTrue((System.nanoTime() - start) / 1000_000L < ADMISSION_TIMEOUT);
+            final CompletableFuture<?> nested = (CompletableFuture<?>) r.get("nested");
+            try {
+                nested.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(1, executor.getAvailable());
+        }
+    }
+
+    @Test
+    public void testCallerRejectedAfterTimeout() throws Exception {
+        try (Blocking executor = new Blocking()) {
+            final CompletableFuture<DBObject> running = executor.getRecord(collection, "a");
+            assertEquals(0, executor.getAvailable());
+            final long start = System.nanoTime();
+            final CompletableFuture<DBObject> rejected = executor.getRecord(collection, "b");
+            final long waited = (System.nanoTime() - start) / 1000_000L;
+            assertTrue(rejected.isCompletedExceptionally());
+            assertTrue("waited " + waited + " ms", waited >= ADMISSION_TIMEOUT - 10);
+            try {
+                rejected.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            executor.gate.countDown();
+            running.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSlotReleasedOnFailure() throws Exception {
+        try (Blocking executor = new Blocking()) {
+            executor.gate.countDown();
+            for (int i = 0; i < 3; i++) {
+                try {
+                    executor.getRecord(collection, "missing").get(5, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertEquals(DatabaseException.Type.NOT_FOUND, ((DatabaseException) e.getCause()).type);
+                }
+                // released before the future is completed
+                assertEquals(1, executor.getAvailable());
+            }
+            executor.getRecord(collection, "a").get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Reads wait for the gate, "missing" is never found, "nested" updates itself from the pool
+     */
+    private static class Blocking extends AsyncMongoExecutor {
+        private final CountDownLatch gate = new CountDownLatch(1);
+
+        private Blocking() {
+            super(1, 1, ADMISSION_TIMEOUT);
+        }
+
+        @Override
+        protected DBObject doGetRecord(DBCollection dbCollection, String id, String... fields) throws DatabaseException {
+            try {
+                if (!gate.await(5, TimeUnit.SECONDS)) {
+                    throw new DatabaseException(DatabaseException.Type.CONNECTION, "gate is closed", null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DatabaseException(DatabaseException.Type.RUNTIME, "interrupted", e);
+            }
+            if (id.equals("nested")) {
+                return new BasicDBObject("nested", update(dbCollection, id, new BasicDBObject("n", 1)));
+            }
+            if (id.equals("missing")) {
+                throw new DatabaseException(DatabaseException.Type.NOT_FOUND, "document not found", null);
+            }
+            return new BasicDBObject("_id", id);
+        }
+
+        @Override
+        protected void doUpdate(DBCollection dbCollection, String id, BasicDBObject record) {
+        }
+    }
+}
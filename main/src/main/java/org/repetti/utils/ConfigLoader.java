@@ -2,11 +2,13 @@ package org.repetti.utils;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.repetti.utils.loaders.JsonConfigLoader;
 import org.repetti.utils.loaders.PropertyConfigLoader;
+import org.repetti.utils.loaders.SnapshotConfigLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,15 +59,25 @@ public abstract class ConfigLoader {
         try {
             prop.load(inputStream);
         } catch (IOException e) {
-            throw getException(ExceptionType.IO, inputStream);
+            throw getException(ExceptionType.IO, inputStream, e);
         }
         return new PropertyConfigLoader(prop);
     }
 
+    /**
+     * Lookup misses (NOT_FOUND, CAST) are expected in normal operation: they are logged at debug level and created
+     * without stack trace, the message names the key while filling in the trace was most of the cost of a miss.
+     * IO and PARSING failures are logged as warnings and keep their stack trace.
+     */
     protected static UtilsException getException(ExceptionType type, Object comment, Exception cause) {
         final String text = new StringBuilder("[").append(type.toString()).append("] ").append(comment).toString();
-        log.warn(text);
-        return new UtilsException(UtilsException.Type.PARAMETERS, text, cause);
+        final boolean miss = type == ExceptionType.NOT_FOUND || type == ExceptionType.CAST;
+        if (!miss) {
+            log.warn(text);
+        } else if (log.isDebugEnabled()) {
+            log.debug(text);
+        }
+        return new UtilsException(UtilsException.Type.PARAMETERS, text, cause, !miss);
     }
 
     public static ConfigLoader loadMap(Map map) throws UtilsException {
@@ -124,12 +136,18 @@ public abstract class ConfigLoader {
         return new JsonConfigLoader(node);
     }
 
+    /**
+     * Binary (Smile) data is detected by the magic header and loaded with {@link #loadBinary(byte[])}
+     */
     public static ConfigLoader loadJsonBytes(final byte[] json) throws UtilsException {
+        if (JsonHelper.isBinary(json)) {
+            return loadBinary(json);
+        }
         final JsonNode jsonNode;
         try {
             jsonNode = JsonHelper.mapper.readTree(json);
         } catch (IOException e) {
-            throw getException(ExceptionType.PARSING, new String(json));
+            throw getException(ExceptionType.PARSING, new String(json), e);
         }
         final ObjectNode node;
         try {
@@ -140,12 +158,42 @@ public abstract class ConfigLoader {
         return new JsonConfigLoader(node);
     }
 
+    /**
+     * Loads config encoded as binary JSON (Smile), see {@link JsonHelper#serializeBinary(JsonNode)}
+     */
+    public static ConfigLoader loadBinary(final byte[] data) throws UtilsException {
+        final JsonNode jsonNode;
+        try {
+            jsonNode = JsonHelper.binaryMapper.readTree(data);
+        } catch (IOException e) {
+            throw getException(ExceptionType.PARSING, data.length + " binary bytes", e);
+        }
+        return loadBinaryNode(jsonNode);
+    }
+
+    public static ConfigLoader loadBinary(final InputStream inputStream) throws UtilsException {
+        final JsonNode jsonNode;
+        try {
+            jsonNode = JsonHelper.binaryMapper.readTree(inputStream);
+        } catch (IOException e) {
+            throw getException(ExceptionType.PARSING, inputStream, e);
+        }
+        return loadBinaryNode(jsonNode);
+    }
+
+    private static ConfigLoader loadBinaryNode(final JsonNode jsonNode) throws UtilsException {
+        if (jsonNode == null || !jsonNode.isObject()) {
+            throw getException(ExceptionType.CAST, jsonNode);
+        }
+        return new JsonConfigLoader((ObjectNode) jsonNode);
+    }
+
     public static ConfigLoader loadJsonString(final String json) throws UtilsException {
         final JsonNode jsonNode;
         try {
             jsonNode = JsonHelper.mapper.readTree(json);
         } catch (IOException e) {
-            throw getException(ExceptionType.PARSING, json);
+            throw getException(ExceptionType.PARSING, json, e);
         }
         final ObjectNode node;
         try {
@@ -156,6 +204,32 @@ public abstract class ConfigLoader {
         return new JsonConfigLoader(node);
     }
 
+    /**
+     * Immutable copy of the config, every value is read once with {@link #findValue(String)} and getters of the copy
+     * are single table lookups. See {@link SnapshotConfigLoader}.
+     */
+    public ConfigLoader snapshot() {
+        return new SnapshotConfigLoader(this);
+    }
+
+    /**
+     * Raw value of the key in a single lookup, used to take snapshots: a {@link JsonNode} for structured values
+     * ({@link NullNode} for null) or a String for text which is converted on
+     * demand as in {@link PropertyConfigLoader}. The node may be shared with the config, don't modify it.
+     * <p/>
+     * Loaders of this library override it, this fallback for other subclasses reads the value as a String.
+     *
+     * @return the value or null if the key is not found
+     */
+    @Nullable
+    public Object findValue(String key) {
+        if (!has(key)) {
+            return null;
+        }
+        final String ret = getStringSafe(key);
+        return ret == null ? NullNode.getInstance() : ret;
+    }
+
     /**
      * Checks if config has the key
      *
@@ -269,6 +343,51 @@ public abstract class ConfigLoader {
      */
     public abstract boolean getBooleanSafe(String key, boolean defaultValue);
 
+    /**
+     * Lookup of an optional key which never creates an exception or logs, use instead of catching the exception of
+     * {@link #getString(String)}
+     *
+     * @return the value or null if the key is not found or is null
+     */
+    @Nullable
+    public String findString(String key) {
+        return has(key) ? getStringSafe(key) : null;
+    }
+
+    /**
+     * Lookup of an optional key which never creates an exception or logs, see {@link #getIntegerSafe(String, int)}.
+     * Loaders of this library answer with a single probe, this fallback for other subclasses may need two.
+     *
+     * @return the value or null if the key is not found or is not an integer
+     */
+    @Nullable
+    public Integer findInteger(String key) {
+        if (!has(key)) {
+            return null;
+        }
+        final int ret = getIntegerSafe(key, Integer.MIN_VALUE);
+        if (ret != Integer.MIN_VALUE) {
+            return ret;
+        }
+        // MIN_VALUE may be the value itself
+        return getIntegerSafe(key, Integer.MAX_VALUE) == Integer.MIN_VALUE ? ret : null;
+    }
+
+    /**
+     * Lookup of an optional key which never creates an exception or logs, see {@link #getBooleanSafe(String, boolean)}.
+     * Loaders of this library answer with a single probe, this fallback for other subclasses needs two.
+     *
+     * @return the value or null if the key is not found or the value depends on the default
+     */
+    @Nullable
+    public Boolean findBoolean(String key) {
+        if (!has(key)) {
+            return null;
+        }
+        final boolean ret = getBooleanSafe(key, false);
+        return ret == getBooleanSafe(key, true) ? ret : null;
+    }
+
     @NotNull
     public String getStringNotNull(String key) throws UtilsException {
         String ret = getString(key);
@@ -397,11 +516,37 @@ public abstract class ConfigLoader {
             //new UtilsException(UtilsException.Type.PARSING);
         }
 
+        @Override
+        public Integer findInteger(String key) {
+            final Object o = map.get(key);
+            return o instanceof Number ? ((Number) o).intValue() : null;
+        }
+
+        @Override
+        public Boolean findBoolean(String key) {
+            final Object o = map.get(key);
+            return o == null && !map.containsKey(key) ? null : Boolean.TRUE.equals(o);
+        }
+
         @Override
         public JsonNode getJson(String key, boolean throwException) throws UtilsException {
             throw new UtilsException(UtilsException.Type.UNDEFINED, "not implemented", null);
         }
 
+        @Override
+        public Object findValue(String key) {
+            final Object o = map.get(key);
+            if (o == null) {
+                return map.containsKey(key) ? NullNode.getInstance() : null;
+            }
+            try {
+                return JsonHelper.mapper.valueToTree(o);
+            } catch (IllegalArgumentException e) {
+                // not a bean, strings and numbers are still readable
+                return o.toString();
+            }
+        }
+
         @Override
         public Set<String> getFieldNames() {
             return map.keySet();
@@ -15,23 +15,11 @@ public class IntJsonHelper {
         return sb.toString();
     }
 
+    /**
+     * @see JsonHelper#compareJson(StringBuilder, String, JsonNode, JsonNode)
+     */
     public static void compareJson(StringBuilder sb, String prefix, JsonNode from, JsonNode to) {
-        if (from == to) {
-            sb.append(prefix).append("are equal");
-            return;
-        }
-        if (from == null) {
-            sb.append(prefix).append("added");
-            return;
-        }
-        if (to == null) {
-            sb.append(prefix).append("removed");
-            return;
-        }
-        if (from.isObject() && to.isObject()) {
-            sb.append(prefix).append("removed");
-            return;
-        }
+        JsonHelper.compareJson(sb, prefix, from, to);
     }
 
 }
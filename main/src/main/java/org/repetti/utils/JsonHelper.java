@@ -1,25 +1,51 @@
 package org.repetti.utils;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.repetti.utils.exceptions.ParseException;
+import org.repetti.utils.json.IndexedArrayView;
+import org.repetti.utils.json.JsonDiff;
+import org.repetti.utils.json.JsonEscaper;
+import org.repetti.utils.json.JsonHash;
+import org.repetti.utils.json.JsonPatch;
+import org.repetti.utils.json.JsonPath;
+import org.repetti.utils.json.JsonPrinter;
+import org.repetti.utils.json.JsonProfile;
+import org.repetti.utils.json.JsonStreamFormatter;
+import org.repetti.utils.json.NdJsonReader;
+import org.repetti.utils.json.NdJsonWriter;
+import org.repetti.utils.json.NodeConsumer;
+import org.repetti.utils.json.ParallelArrayParser;
+import org.repetti.utils.json.SortedStreamFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author repetti
@@ -27,14 +53,71 @@ import java.util.TreeSet;
 public class JsonHelper {
 
     public final static ObjectMapper mapper = new ObjectMapper();
+    /**
+     * Mapper for binary JSON (Smile), same data model as {@link #mapper}
+     */
+    public final static ObjectMapper binaryMapper = new ObjectMapper(new SmileFactory());
+    private final static ConcurrentMap<String, JsonProfile> profiles = new ConcurrentHashMap<String, JsonProfile>();
+    /**
+     * Settings of {@link #mapper} at class initialization
+     */
+    public final static JsonProfile PROFILE_DEFAULT = registerProfile(new JsonProfile("default", mapper));
+    /**
+     * Fails on duplicate field names, for configs
+     */
+    public final static JsonProfile PROFILE_STRICT = registerProfile(new JsonProfile("strict", mapper)
+            .with(JsonParser.Feature.STRICT_DUPLICATE_DETECTION, true)
+            .with(DeserializationFeature.FAIL_ON_READING_DUP_TREE_KEY, true));
+    /**
+     * Accepts comments, single quotes, unquoted field names, NaN and control characters in strings, for telemetry
+     */
+    public final static JsonProfile PROFILE_LENIENT = registerProfile(new JsonProfile("lenient", mapper)
+            .with(JsonParser.Feature.ALLOW_COMMENTS, true)
+            .with(JsonParser.Feature.ALLOW_SINGLE_QUOTES, true)
+            .with(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES, true)
+            .with(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS, true)
+            .with(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS, true)
+            .with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false));
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    private final static int PRINT_BUFFER_SIZE = 64 * 1024;
     protected final static Logger log = LoggerFactory.getLogger(JsonHelper.class);
 
+    /**
+     * Registers the profile under its name, replacing a previous one with the same name
+     *
+     * @return the profile
+     * @throws IllegalArgumentException for names of the built-in profiles ("default", "strict", "lenient")
+     */
+    public static JsonProfile registerProfile(@NotNull JsonProfile profile) {
+        final String name = profile.getName();
+        if (("default".equals(name) || "strict".equals(name) || "lenient".equals(name))
+                && profiles.putIfAbsent(name, profile) != null) {
+            throw new IllegalArgumentException("built-in profile can't be replaced: " + name);
+        }
+        profiles.put(name, profile);
+        return profile;
+    }
+
+    /**
+     * @throws UtilsException if there is no profile with this name
+     */
+    public static JsonProfile getProfile(String name) throws UtilsException {
+        final JsonProfile ret = profiles.get(name);
+        if (ret == null) {
+            throw new UtilsException(UtilsException.Type.NOT_FOUND, "profile not found: " + name, null);
+        }
+        return ret;
+    }
+
     public static ObjectNode newObjectNode(String key, JsonNode value) {
         ObjectNode ret = JsonHelper.mapper.createObjectNode();
         ret.set(key, value);
         return ret;
     }
 
+    /**
+     * Linear scan of the array, use {@link #indexed(ArrayNode)} to check big arrays many times
+     */
     public static boolean contains(ArrayNode arrayNode, String value) {
         for (JsonNode j : arrayNode) {
             if (value.equals(j.textValue())) {
@@ -44,6 +127,13 @@ public class JsonHelper {
         return false;
     }
 
+    /**
+     * @return view of the array with hash-based {@code contains}, see {@link IndexedArrayView}
+     */
+    public static IndexedArrayView indexed(ArrayNode arrayNode) {
+        return new IndexedArrayView(arrayNode);
+    }
+
     /**
      * Checks that node is an instance of ArrayNode
      *
@@ -137,22 +227,127 @@ public class JsonHelper {
         }
     }
 
+    /**
+     * Parses elements of a top-level array in parallel on all available processors, see {@link ParallelArrayParser}
+     *
+     * @param ordered if true consumer is called from the current thread in file order, otherwise from worker threads
+     *                as elements are parsed (consumer has to be thread safe then)
+     * @return number of elements
+     * @throws UtilsException if the file cannot be read, is not an array or contains malformed elements
+     */
+    public static long parseArrayParallel(Path path, NodeConsumer consumer, boolean ordered) throws UtilsException {
+        return ParallelArrayParser.parse(mapper, path, consumer, ordered);
+    }
+
+    /**
+     * Reads newline-delimited JSON (one record per line) with a single parser, the stream is not closed
+     *
+     * @return number of records
+     * @throws UtilsException if the stream cannot be read or a record is malformed
+     */
+    public static long parseLines(InputStream inputStream, NodeConsumer consumer) throws UtilsException {
+        return new NdJsonReader(mapper, inputStream).forEach(consumer);
+    }
+
+    /**
+     * Reads newline-delimited JSON, batches of lines are parsed on the pool, records are passed to the consumer from
+     * the current thread in stream order. The stream is not closed.
+     *
+     * @return number of records
+     * @throws UtilsException if the stream cannot be read or a record is malformed
+     */
+    public static long parseLines(InputStream inputStream, NodeConsumer consumer, ExecutorService pool) throws UtilsException {
+        return NdJsonReader.read(mapper, inputStream, consumer, pool, NdJsonReader.DEFAULT_BATCH_SIZE);
+    }
+
+    public static NdJsonReader newLinesReader(InputStream inputStream) throws UtilsException {
+        return new NdJsonReader(mapper, inputStream);
+    }
+
+    /**
+     * @return writer of newline-delimited JSON, has to be closed or flushed to write buffered records
+     */
+    public static NdJsonWriter newLinesWriter(OutputStream outputStream) throws UtilsException {
+        return new NdJsonWriter(mapper, outputStream, NdJsonWriter.DEFAULT_BATCH_SIZE);
+    }
+
     /**
      * Transforms string to JSON representation of it. That means that some characters will be "shielded".
      * Quotation is added.
      */
     public static String jsonify(String text) {
-//        try {
-        return new TextNode(text).toString();
-//        } catch (IOException e) {
-//            throw new UtilsException(UtilsException.Type.CONNECTION, "error parsing text: " + text, e);
-//        }
+        return JsonEscaper.quote(text);
     }
 
     public static String serialize(JsonNode j) {
         return j.toString();
     }
 
+    /**
+     * Checks the magic header of binary encoded JSON (Smile)
+     */
+    public static boolean isBinary(@Nullable byte[] data) {
+        return data != null && data.length >= 3
+                && data[0] == SmileConstants.HEADER_BYTE_1
+                && data[1] == SmileConstants.HEADER_BYTE_2
+                && data[2] == SmileConstants.HEADER_BYTE_3;
+    }
+
+    /**
+     * Parses textual or binary (Smile) JSON, format is detected by the magic header
+     */
+    public static JsonNode parse(byte[] data) throws UtilsException {
+        if (isBinary(data)) {
+            return parseBinary(data);
+        }
+        try {
+            return mapper.readTree(data);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "error parsing " + data.length + " bytes", e);
+        }
+    }
+
+    public static JsonNode parseBinary(byte[] data) throws UtilsException {
+        try {
+            return binaryMapper.readTree(data);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "error parsing " + data.length + " binary bytes", e);
+        }
+    }
+
+    public static JsonNode parseBinary(InputStream inputStream) throws UtilsException {
+        try {
+            return binaryMapper.readTree(inputStream);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading IO stream: " + inputStream, e);
+        }
+    }
+
+    /**
+     * @return Smile encoding of the node, starting with the magic header
+     */
+    public static byte[] serializeBinary(JsonNode j) {
+        try {
+            return binaryMapper.writeValueAsBytes(j);
+        } catch (IOException e) {
+            throw new IllegalStateException("error encoding json", e);
+        }
+    }
+
+    /**
+     * Writes Smile encoding of the node, the stream is not closed
+     */
+    public static void serializeBinary(JsonNode j, OutputStream outputStream) throws UtilsException {
+        try {
+            final JsonGenerator g = binaryMapper.getFactory().createGenerator(outputStream);
+            g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            binaryMapper.writeTree(g, j);
+            g.close();
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error writing binary json", e);
+        }
+    }
+
     public static String toPrintable(JsonNode j) {
         return j == null ? null : j.asText();
     }
@@ -170,119 +365,145 @@ public class JsonHelper {
     }
 
     public static void printFormatted(JsonNode j, StringBuilder sb, int spaces, int tabSize) {
-        if (j.isArray()) {
-            sb.append("[");
-            boolean notEmpty = false;
-            for (JsonNode t : j) {
-                if (notEmpty) {
-                    sb.append(",\n");
-                } else {
-                    notEmpty = true;
-                    sb.append("\n");
-                }
-                for (int i = 0; i < spaces + tabSize; i++) {
-                    sb.append(' ');
-                }
-                printFormatted(t, sb, spaces + tabSize, 2);
+        try {
+            new JsonPrinter(sb, tabSize, false).print(j, spaces);
+        } catch (IOException e) {
+            throw new IllegalStateException("StringBuilder is not expected to throw", e);
+        }
+    }
 
-            }
-            if (notEmpty) {
-                sb.append('\n');
-                for (int i = 0; i < spaces; i++) {
-                    sb.append(' ');
-                }
-            }
-            sb.append("]");
-        } else if (j.isObject()) {
-            ObjectNode o = (ObjectNode) j;
-            sb.append("{");
-            boolean notEmpty = false;
-            Iterator<Map.Entry<String, JsonNode>> i = o.fields();
-            while (i.hasNext()) {
-                Map.Entry<String, JsonNode> cur = i.next();
-                JsonNode t = cur.getValue();
-                if (notEmpty) {
-                    sb.append(",\n");
-                } else {
-                    notEmpty = true;
-                    sb.append("\n");
-                }
-                for (int tmp = 0; tmp < spaces + tabSize; tmp++) {
-                    sb.append(' ');
-                }
-                sb.append(jsonify(cur.getKey())).append(": ");
-                printFormatted(t, sb, spaces + tabSize, 2);
+    public static void printFormattedSorted(JsonNode j, StringBuilder sb, int spaces, int tabSize) {
+        try {
+            new JsonPrinter(sb, tabSize, true).print(j, spaces);
+        } catch (IOException e) {
+            throw new IllegalStateException("StringBuilder is not expected to throw", e);
+        }
+    }
 
-            }
-            if (notEmpty) {
-                sb.append('\n');
-                for (int tmp = 0; tmp < spaces; tmp++) {
-                    sb.append(' ');
-                }
-            }
-            sb.append("}");
-        } else {
-            sb.append(j.toString());
+    /**
+     * Same as {@link #printFormatted(JsonNode)}, but the result is written directly to the appendable.
+     * Nothing is buffered here, so wrap unbuffered destinations or use other overloads.
+     */
+    public static void printFormatted(JsonNode j, Appendable out, int spaces, int tabSize) throws IOException {
+        new JsonPrinter(out, tabSize, false).print(j, spaces);
+    }
+
+    public static void printFormattedSorted(JsonNode j, Appendable out, int spaces, int tabSize) throws IOException {
+        new JsonPrinter(out, tabSize, true).print(j, spaces);
+    }
+
+    /**
+     * Writes formatted JSON to the writer using a buffer of fixed size. Writer is flushed, but not closed.
+     *
+     * @throws UtilsException on IO errors
+     */
+    public static void printFormatted(JsonNode j, Writer writer) throws UtilsException {
+        print(j, writer, false);
+    }
+
+    public static void printFormattedSorted(JsonNode j, Writer writer) throws UtilsException {
+        print(j, writer, true);
+    }
+
+    /**
+     * Writes formatted JSON to the stream in UTF-8 using a buffer of fixed size. Stream is flushed, but not closed.
+     *
+     * @throws UtilsException on IO errors
+     */
+    public static void printFormatted(JsonNode j, OutputStream outputStream) throws UtilsException {
+        print(j, new OutputStreamWriter(outputStream, UTF_8), false);
+    }
+
+    public static void printFormattedSorted(JsonNode j, OutputStream outputStream) throws UtilsException {
+        print(j, new OutputStreamWriter(outputStream, UTF_8), true);
+    }
+
+    /**
+     * Formats the file token by token without building a tree, so any size of input can be processed.
+     * Layout is the same as of {@link #printFormatted(JsonNode)}; several root values are allowed, each is printed
+     * from a new line. Stream is flushed, but not closed.
+     *
+     * @throws UtilsException on parsing or IO errors
+     */
+    public static void printFormatted(File file, OutputStream outputStream) throws UtilsException {
+        final JsonParser parser;
+        try {
+            parser = mapper.getFactory().createParser(file);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading file: " + file, e);
         }
+        printFormatted(parser, outputStream);
     }
 
-    public static void printFormattedSorted(JsonNode j, StringBuilder sb, int spaces, int tabSize) {
-        if (j.isArray()) {
-            sb.append("[");
-            boolean notEmpty = false;
-            for (JsonNode t : j) {
-                if (notEmpty) {
-                    sb.append(",\n");
-                } else {
-                    notEmpty = true;
-                    sb.append("\n");
-                }
-                for (int i = 0; i < spaces + tabSize; i++) {
-                    sb.append(' ');
-                }
-                printFormattedSorted(t, sb, spaces + tabSize, 2);
+    /**
+     * Same as {@link #printFormatted(File, OutputStream)}. Input stream is not closed.
+     */
+    public static void printFormatted(InputStream inputStream, OutputStream outputStream) throws UtilsException {
+        final JsonParser parser;
+        try {
+            parser = mapper.getFactory().createParser(inputStream);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading IO stream: " + inputStream, e);
+        }
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        printFormatted(parser, outputStream);
+    }
 
+    /**
+     * Sorted version of {@link #printFormatted(File, OutputStream)}. Only fields of one object are kept in memory,
+     * very wide objects are sorted using temporary files (see {@link SortedStreamFormatter}).
+     *
+     * @throws UtilsException on parsing or IO errors
+     */
+    public static void printFormattedSorted(File file, OutputStream outputStream) throws UtilsException {
+        final JsonParser parser;
+        try {
+            parser = mapper.getFactory().createParser(file);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading file: " + file, e);
+        }
+        try {
+            final Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8), PRINT_BUFFER_SIZE);
+            new SortedStreamFormatter(out, 2).format(parser);
+            out.flush();
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "error formatting json stream", e);
+        } finally {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                log.warn("Exception while closing parser", e);
             }
-            if (notEmpty) {
-                sb.append('\n');
-                for (int i = 0; i < spaces; i++) {
-                    sb.append(' ');
-                }
-            }
-            sb.append("]");
-        } else if (j.isObject()) {
-            ObjectNode o = (ObjectNode) j;
-            sb.append("{");
-            boolean notEmpty = false;
-            Iterator<String> nameIterator = o.fieldNames();
-            TreeSet<String> fields = new TreeSet<String>();
-            while (nameIterator.hasNext()) {
-                fields.add(nameIterator.next());
-            }
-            for (String cur : fields) {
-                JsonNode t = o.get(cur);
-                if (notEmpty) {
-                    sb.append(",\n");
-                } else {
-                    notEmpty = true;
-                    sb.append("\n");
-                }
-                for (int tmp = 0; tmp < spaces + tabSize; tmp++) {
-                    sb.append(' ');
-                }
-                sb.append(jsonify(cur)).append(": ");
-                printFormattedSorted(t, sb, spaces + tabSize, 2);
+        }
+    }
 
+    private static void printFormatted(JsonParser parser, OutputStream outputStream) throws UtilsException {
+        try {
+            final JsonGenerator generator = mapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            try {
+                JsonStreamFormatter.format(parser, generator, 2);
+            } finally {
+                generator.close();
             }
-            if (notEmpty) {
-                sb.append('\n');
-                for (int tmp = 0; tmp < spaces; tmp++) {
-                    sb.append(' ');
-                }
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "error formatting json stream", e);
+        } finally {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                log.warn("Exception while closing parser", e);
             }
-            sb.append("}");
-        } else {
-            sb.append(j.toString());
+        }
+    }
+
+    private static void print(JsonNode j, Writer writer, boolean sorted) throws UtilsException {
+        final Writer out = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, PRINT_BUFFER_SIZE);
+        try {
+            new JsonPrinter(out, 2, sorted).print(j, 0);
+            out.flush();
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error writing formatted json", e);
         }
     }
 
@@ -325,6 +546,29 @@ public class JsonHelper {
         ((ObjectNode) t).set(p, f);
     }
 
+    /**
+     * Applies RFC 6902 JSON Patch. Unlike {@link #replaceNode} all operations are applied in one pass.
+     *
+     * @param atomic when true target is left untouched and the result is returned only if every operation succeeds,
+     *               otherwise target is modified in place
+     * @return new root (root may be replaced by the patch)
+     * @throws UtilsException if the patch is malformed or an operation fails
+     * @see JsonPatch
+     */
+    public static JsonNode applyPatch(JsonNode target, JsonNode patch, boolean atomic) throws UtilsException {
+        return JsonPatch.apply(target, patch, atomic);
+    }
+
+    /**
+     * Applies RFC 7386 JSON Merge Patch
+     *
+     * @param atomic when true target is left untouched, otherwise it is modified in place
+     * @return new root
+     */
+    public static JsonNode applyMergePatch(JsonNode target, JsonNode patch, boolean atomic) {
+        return JsonPatch.merge(target, patch, atomic);
+    }
+
 //    public static void replaceNode(JsonNode from, JsonNode to, List<String> path) {
 //
 //    }
@@ -334,18 +578,16 @@ public class JsonHelper {
     }
 
     public static String getString(ObjectNode o, String field, String defaultValue) {
-        if (o.has(field)) {
-            JsonNode ret = o.get(field);
-            if (ret.isTextual()) {
-                return ret.asText();
-            }
+        JsonNode ret = o.get(field);
+        if (ret != null && ret.isTextual()) {
+            return ret.asText();
         }
         return defaultValue;
     }
 
     public static String getString(ObjectNode o, String field) throws ParseException, UtilsException {
-        if (o.has(field)) {
-            JsonNode ret = o.get(field);
+        JsonNode ret = o.get(field);
+        if (ret != null) {
             if (ret.isTextual()) {
                 return ret.asText();
             }
@@ -355,24 +597,21 @@ public class JsonHelper {
     }
 
     public static JsonNode getJson(ObjectNode o, String field, JsonNode defaultValue) {
-        if (o.has(field)) {
-            JsonNode ret = o.get(field);
-            return ret;
-        }
-        return defaultValue;
+        JsonNode ret = o.get(field);
+        return ret == null ? defaultValue : ret;
     }
 
     public static JsonNode getJson(ObjectNode o, String field) throws UtilsException {
-        if (o.has(field)) {
-            JsonNode ret = o.get(field);
+        JsonNode ret = o.get(field);
+        if (ret != null) {
             return ret;
         }
         throw new UtilsException(UtilsException.Type.PARAMETERS, field + " not found", null);
     }
 
     public static ObjectNode getObject(ObjectNode o, String field) throws ParseException, UtilsException {
-        if (o.has(field)) {
-            JsonNode ret = o.get(field);
+        JsonNode ret = o.get(field);
+        if (ret != null) {
             if (ret.isObject()) {
                 return (ObjectNode) ret;
             }
@@ -382,8 +621,8 @@ public class JsonHelper {
     }
 
     public static int getInteger(ObjectNode o, String field) throws ParseException, UtilsException {
-        if (o.has(field)) {
-            JsonNode ret = o.get(field);
+        JsonNode ret = o.get(field);
+        if (ret != null) {
             if (ret.isInt()) {
                 return ret.asInt();
             }
@@ -392,12 +631,42 @@ public class JsonHelper {
         throw new UtilsException(UtilsException.Type.PARAMETERS, field + " not found", null);
     }
 
+    /**
+     * Compiles dotted ({@code a.b[3].c}) or JSON Pointer ({@code /a/b/3/c}) expression to be evaluated against many
+     * documents, see {@link JsonPath}
+     *
+     * @throws ParseException if the expression is malformed
+     */
+    public static JsonPath compilePath(String expression) throws ParseException {
+        return JsonPath.compile(expression);
+    }
+
+    /**
+     * Returns RFC 6902 JSON Patch transforming one tree to another
+     *
+     * @return array of operations, empty if trees are equal
+     * @see JsonDiff
+     */
+    public static ArrayNode diff(JsonNode from, JsonNode to) {
+        return JsonDiff.diff(from, to);
+    }
+
     public static String compareJson(JsonNode from, JsonNode to) {
         StringBuilder sb = new StringBuilder();
         compareJson(sb, "", from, to);
         return sb.toString();
     }
 
+    /**
+     * Structural hash, equal trees have equal hashes regardless of the order of object fields, see {@link JsonHash}
+     */
+    public static long hash(JsonNode j) {
+        return JsonHash.of(j);
+    }
+
+    /**
+     * Human readable comparison, one line per patch operation: {@code <prefix><op> <path>[: <value>]}
+     */
     public static void compareJson(StringBuilder sb, String prefix, JsonNode from, JsonNode to) {
         if (from == to) {
             sb.append(prefix).append("are equal");
@@ -411,9 +680,21 @@ public class JsonHelper {
             sb.append(prefix).append("removed");
             return;
         }
-        if (from.isObject() && to.isObject()) {
-            sb.append(prefix).append("removed");
+        ArrayNode patch = diff(from, to);
+        if (patch.size() == 0) {
+            sb.append(prefix).append("are equal");
             return;
         }
+        boolean notFirst = false;
+        for (JsonNode op : patch) {
+            if (notFirst) {
+                sb.append('\n');
+            }
+            notFirst = true;
+            sb.append(prefix).append(op.get(JsonDiff.OP).textValue()).append(' ').append(op.get(JsonDiff.PATH).textValue());
+            if (op.has(JsonDiff.VALUE)) {
+                sb.append(": ").append(op.get(JsonDiff.VALUE));
+            }
+        }
     }
 }
@@ -42,9 +42,9 @@ public class Main {
         if (param != null && !HELP.equals(param)) {
             if (JSON_HELPER.equals(param)) {
                 return "Parameters for JsonHelper:" +
-                        "\n\t " + JH_FORMAT + " <filename> - print formatted" +
+                        "\n\t " + JH_FORMAT + " <filename> - print formatted (streaming, several root values allowed)" +
                         "\n\t " + JH_NORMAL + " <filename> - print normalized" +
-                        "\n\t " + JH_FORMAT_SORT + " <filename> - print formatted and sorted";
+                        "\n\t " + JH_FORMAT_SORT + " <filename> - print formatted and sorted (streaming)";
             } else {
                 System.err.println("Command '" + param + "' not defined\n");
             }
@@ -63,8 +63,8 @@ public class Main {
             if (file == null) {
                 return;
             }
-            JsonNode j = JsonHelper.parse(file);
-            System.out.println(JsonHelper.printFormatted(j));
+            JsonHelper.printFormatted(file, System.out);
+            System.out.println();
         } else if (JH_FORMAT_SORT.equals(args[1])) {
             if (args.length != 3) {
                 System.err.println("wrong number of parameters");
@@ -73,8 +73,8 @@ public class Main {
             if (file == null) {
                 return;
             }
-            JsonNode j = JsonHelper.parse(file);
-            System.out.println(JsonHelper.printFormattedSorted(j));
+            JsonHelper.printFormattedSorted(file, System.out);
+            System.out.println();
         } else if (JH_NORMAL.equals(args[1])) {
             if (args.length != 3) {
                 System.err.println("wrong number of parameters");
@@ -0,0 +1,378 @@
+package org.repetti.utils;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.bson.types.ObjectId;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Buffers writes of {@link MongoExecutor#put(DBCollection, DBObject)},
+ * {@link MongoExecutor#update(DBCollection, String, BasicDBObject)} and
+ * {@link MongoExecutor#remove(DBCollection, String)} per collection and sends them as ordered bulk operations, one
+ * round trip per batch instead of one per document.
+ * <p/>
+ * A collection is flushed by the writing thread when its buffer reaches the batch size, and by a background thread
+ * every flush interval. Writes of a collection are executed in the order they were added, so several writes of the
+ * same document are applied in order. A failed write doesn't stop the others, its future fails with a
+ * {@link DatabaseException} (PARAMETERS for duplicate keys, RUNTIME otherwise). When the driver rejects a batch
+ * before sending it (invalid field names, values it can't encode) the writes are sent again one at a time, so only the
+ * bad documents fail, with PARAMETERS. Servers without write commands (before 2.6) apply writes one by one, the writes
+ * ahead of the bad document are applied twice then: updates and removals are not affected, inserts fail as duplicates.
+ * <p/>
+ * Cached records of {@link MongoExecutor#enableCache(DBCollection, int, long)} are invalidated once a batch is sent.
+ * <p/>
+ * Instances are thread safe. {@link #close()} flushes remaining writes and stops the background thread, writes added
+ * after that fail at once with RUNTIME.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class MongoBatchWriter implements Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+    private static final Logger log = LoggerFactory.getLogger(MongoBatchWriter.class);
+
+    private final int batchSize;
+    private final WriteConcern concern;
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closed = false;
+
+    public MongoBatchWriter() {
+        this(DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, WriteConcern.SAFE);
+    }
+
+    /**
+     * @param batchSize     number of writes of a collection sent at once
+     * @param flushInterval milliseconds between flushes of incomplete batches
+     */
+    public MongoBatchWriter(int batchSize, long flushInterval, @NotNull WriteConcern concern) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.concern = concern;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(MongoBatchWriter.class));
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    log.warn("scheduled flush failed", e);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Inserts the document, an id is added if missing as in {@link MongoExecutor#put(DBCollection, DBObject)}
+     *
+     * @return the document when written
+     */
+    @NotNull
+    public Future<DBObject> put(@NotNull DBCollection dbCollection, @NotNull DBObject object) {
+        if (!object.containsField(UtilsConstants.MONGO_PRIMARY_KEY)) {
+            object.put(UtilsConstants.MONGO_PRIMARY_KEY, new ObjectId().toString());
+        }
+        final Write<DBObject> ret = new Write<DBObject>(Write.INSERT, null, object, object);
+        add(dbCollection, ret);
+        return ret;
+    }
+
+    /**
+     * Sets fields of the document, created if missing, as {@link MongoExecutor#update(DBCollection, String, BasicDBObject)}
+     */
+    @NotNull
+    public Future<Void> update(@NotNull DBCollection dbCollection, @NotNull String id, @NotNull BasicDBObject record) {
+        final Write<Void> ret = new Write<Void>(Write.UPDATE, new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY, id),
+                new BasicDBObject("$set", record), null);
+        add(dbCollection, ret);
+        return ret;
+    }
+
+    @NotNull
+    public Future<Void> remove(@NotNull DBCollection dbCollection, @NotNull String id) {
+        final Write<Void> ret = new Write<Void>(Write.REMOVE, new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY, id),
+                null, null);
+        add(dbCollection, ret);
+        return ret;
+    }
+
+    private void add(DBCollection dbCollection, Write<?> write) {
+        if (closed) {
+            reject(write);
+            return;
+        }
+        final String name = dbCollection.getFullName();
+        Batch batch = batches.get(name);
+        if (batch == null) {
+            final Batch tmp = new Batch(dbCollection);
+            batch = batches.putIfAbsent(name, tmp);
+            if (batch == null) {
+                batch = tmp;
+            }
+        }
+        final int size;
+        synchronized (batch) {
+            // close() sets the flag before flushing, a write added here is flushed by it
+            if (closed) {
+                reject(write);
+                return;
+            }
+            batch.writes.add(write);
+            size = batch.writes.size();
+        }
+        if (size >= batchSize) {
+            batch.flush();
+        }
+    }
+
+    private static void reject(Write<?> write) {
+        write.complete(new DatabaseException(DatabaseException.Type.RUNTIME, "batch writer is closed", null));
+    }
+
+    /**
+     * Sends all buffered writes and waits for the results
+     */
+    public void flush() {
+        for (Batch batch : batches.values()) {
+            batch.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+        flush();
+    }
+
+    /**
+     * Sends one ordered bulk operation, can be overridden e.g. to test without a server
+     *
+     * @param documents documents and update operators of the writes in order, null for removals
+     */
+    protected void execute(@NotNull DBCollection dbCollection, @NotNull BulkWriteOperation bulk,
+                           @NotNull List<DBObject> documents) {
+        bulk.execute(concern);
+    }
+
+    /**
+     * Buffered writes of one collection
+     */
+    private class Batch {
+        private final DBCollection dbCollection;
+        private List<Write<?>> writes = new ArrayList<Write<?>>();
+        /**
+         * Held while a batch is sent, keeps batches of the collection in order
+         */
+        private final Object sending = new Object();
+
+        private Batch(DBCollection dbCollection) {
+            this.dbCollection = dbCollection;
+        }
+
+        private void flush() {
+            synchronized (sending) {
+                final List<Write<?>> list;
+                synchronized (this) {
+                    if (writes.isEmpty()) {
+                        return;
+                    }
+                    list = writes;
+                    writes = new ArrayList<Write<?>>();
+                }
+                for (int i = 0; i < list.size(); i += batchSize) {
+                    final List<Write<?>> part = list.subList(i, Math.min(i + batchSize, list.size()));
+                    try {
+                        send(part);
+                    } finally {
+                        // failed writes may be applied as well
+                        for (Write<?> w : part) {
+                            MongoExecutor.invalidate(dbCollection, w.id());
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Ordered bulk stops at the first failed write, the rest is sent again
+         */
+        private void send(List<Write<?>> list) {
+            int from = 0;
+            while (from < list.size()) {
+                final List<Write<?>> part = list.subList(from, list.size());
+                try {
+                    final BulkWriteOperation bulk = dbCollection.initializeOrderedBulkOperation();
+                    final List<DBObject> documents = new ArrayList<DBObject>(part.size());
+                    for (Write<?> w : part) {
+                        w.addTo(bulk);
+                        documents.add(w.object);
+                    }
+                    execute(dbCollection, bulk, documents);
+                    for (Write<?> w : part) {
+                        w.complete(null);
+                    }
+                    return;
+                } catch (BulkWriteException e) {
+                    final List<BulkWriteError> errors = e.getWriteErrors();
+                    if (errors.isEmpty()) {
+                        // write concern error, the writes may or may not be applied
+                        fail(part, new DatabaseException(DatabaseException.Type.RUNTIME,
+                                "bulk write to " + dbCollection.getFullName() + " failed", e));
+                        return;
+                    }
+                    final BulkWriteError error = errors.get(0);
+                    for (int i = 0; i < error.getIndex(); i++) {
+                        part.get(i).complete(null);
+                    }
+                    final boolean duplicate = error.getCode() == 11000 || error.getCode() == 11001;
+                    part.get(error.getIndex()).complete(new DatabaseException(duplicate ? DatabaseException.Type.PARAMETERS
+                            : DatabaseException.Type.RUNTIME, error.getMessage(), e));
+                    from += error.getIndex() + 1;
+                } catch (MongoException e) {
+                    fail(part, new DatabaseException(DatabaseException.Type.RUNTIME,
+                            "unable to process bulk write to " + dbCollection.getFullName(), e));
+                    return;
+                } catch (RuntimeException e) {
+                    // rejected by the driver before sending, e.g. a document it can't encode
+                    if (part.size() == 1) {
+                        fail(part, new DatabaseException(DatabaseException.Type.PARAMETERS,
+                                "invalid document: " + e.getMessage(), e));
+                        return;
+                    }
+                    log.debug("bulk write to {} rejected, sending {} writes one at a time", dbCollection.getFullName(), part.size());
+                    for (Write<?> w : part) {
+                        send(Collections.<Write<?>>singletonList(w));
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void fail(List<Write<?>> list, DatabaseException e) {
+            log.warn("{} writes failed: {}", list.size(), e.getMessage());
+            for (Write<?> w : list) {
+                w.complete(e);
+            }
+        }
+    }
+
+    /**
+     * Buffered write and its result
+     */
+    private static class Write<T> implements Future<T> {
+        private static final int INSERT = 0;
+        private static final int UPDATE = 1;
+        private static final int REMOVE = 2;
+
+        private final int kind;
+        private final DBObject query;
+        private final DBObject object;
+        private final T result;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile DatabaseException error;
+
+        private Write(int kind, DBObject query, DBObject object, T result) {
+            this.kind = kind;
+            this.query = query;
+            this.object = object;
+            this.result = result;
+        }
+
+        /**
+         * @return id of the written document
+         */
+        private Object id() {
+            return (query != null ? query : object).get(UtilsConstants.MONGO_PRIMARY_KEY);
+        }
+
+        private void addTo(BulkWriteOperation bulk) {
+            switch (kind) {
+                case INSERT:
+                    bulk.insert(object);
+                    break;
+                case UPDATE:
+                    bulk.find(query).upsert().updateOne(object);
+                    break;
+                case REMOVE:
+                    bulk.find(query).remove();
+                    break;
+                default:
+                    throw new IllegalStateException("kind " + kind);
+            }
+        }
+
+        /**
+         * @param e null on success
+         */
+        private void complete(DatabaseException e) {
+            error = e;
+            done.countDown();
+        }
+
+        /**
+         * Buffered writes can't be cancelled
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public T get(long timeout, @NotNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return result();
+        }
+
+        private T result() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return result;
+        }
+    }
+}
@@ -16,7 +16,19 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author repetti
@@ -24,6 +36,71 @@ import java.util.List;
 public class MongoExecutor {
     private static final Logger log = LoggerFactory.getLogger(MongoExecutor.class);
     private static final WriteConcern defaultConcern = WriteConcern.SAFE; //WriteConcern.ACKNOWLEDGED;
+    /**
+     * Maximum number of ids in one $in query of {@link #containsAll(DBCollection, Collection)}
+     */
+    public static final int CONTAINS_CHUNK = 1000;
+    /**
+     * Ids sampled per range to find split points of {@link #findIdsParallel(DBCollection, BasicDBObject, int, int, Visitor)}
+     */
+    public static final int SPLIT_SAMPLES = 32;
+    /**
+     * Record caches by full collection name, see {@link #enableCache(DBCollection, int, long)}
+     */
+    private static final ConcurrentMap<String, MongoRecordCache> caches = new ConcurrentHashMap<String, MongoRecordCache>();
+
+    /**
+     * Caches results of {@link #getRecord(DBCollection, String, String...)} (and getters based on it) for the
+     * collection, replacing its previous cache. Writes through this class and {@link MongoBatchWriter} invalidate the
+     * cache, see {@link MongoRecordCache}.
+     *
+     * @param maxSize maximum number of cached (id, fields) records
+     * @param ttl     milliseconds a record is kept, bounds staleness for writes made by other means
+     * @return the cache, for its counters
+     */
+    @NotNull
+    public static MongoRecordCache enableCache(@NotNull DBCollection dbCollection, int maxSize, long ttl) {
+        if (maxSize < 1 || ttl < 0) {
+            throw new IllegalArgumentException("maxSize " + maxSize + ", ttl " + ttl);
+        }
+        final MongoRecordCache cache = new MongoRecordCache(maxSize, ttl);
+        caches.put(dbCollection.getFullName(), cache);
+        return cache;
+    }
+
+    public static void disableCache(@NotNull DBCollection dbCollection) {
+        caches.remove(dbCollection.getFullName());
+    }
+
+    /**
+     * @return cache of the collection or null if not enabled
+     */
+    @Nullable
+    public static MongoRecordCache getCache(@NotNull DBCollection dbCollection) {
+        return caches.isEmpty() ? null : caches.get(dbCollection.getFullName());
+    }
+
+    /**
+     * Drops cached records of the document, of all documents if id is null. Also used by {@link MongoBatchWriter}.
+     */
+    static void invalidate(@NotNull DBCollection dbCollection, @Nullable Object id) {
+        final MongoRecordCache cache = getCache(dbCollection);
+        if (cache != null) {
+            if (id == null) {
+                cache.clear();
+            } else {
+                cache.invalidate(id.toString());
+            }
+        }
+    }
+
+    /**
+     * Drops cached records matching the query: the document if queried by a plain id, all otherwise
+     */
+    private static void invalidateQuery(@NotNull DBCollection dbCollection, @NotNull DBObject query) {
+        final Object id = query.get(UtilsConstants.MONGO_PRIMARY_KEY);
+        invalidate(dbCollection, id instanceof String || id instanceof ObjectId ? id : null);
+    }
 
     public static void put(@NotNull DBCollection dbCollection, @NotNull String id, String field, String value) throws DatabaseException {
         log.trace("put({}, {}:{})", id, field, value);
@@ -49,6 +126,8 @@ public class MongoExecutor {
             return object;
         } catch (MongoException e) {
             throw processException(e, "put");
+        } finally {
+            invalidate(dbCollection, object.get(UtilsConstants.MONGO_PRIMARY_KEY));
         }
     }
 
@@ -90,6 +169,8 @@ public class MongoExecutor {
             dbCollection.update(query, new BasicDBObject("$set", record), true, false, defaultConcern);
         } catch (MongoException e) {
             throw processException(e, "update");
+        } finally {
+            invalidate(dbCollection, id);
         }
     }
 
@@ -109,13 +190,19 @@ public class MongoExecutor {
             return object;
         } catch (MongoException e) {
             throw processException(e, "update");
+        } finally {
+            invalidateQuery(dbCollection, query);
         }
     }
 
     public static DBObject findAndUpdate(DBCollection dbCollection, String id, String updateField, Object value) {
         BasicDBObject query = new BasicDBObject();
         query.put(UtilsConstants.MONGO_PRIMARY_KEY, id);
-        return dbCollection.findAndModify(query, new BasicDBObject("$set", new BasicDBObject(updateField, value)));
+        try {
+            return dbCollection.findAndModify(query, new BasicDBObject("$set", new BasicDBObject(updateField, value)));
+        } finally {
+            invalidate(dbCollection, id);
+        }
     }
 
     public static boolean contains(@NotNull DBCollection dbCollection, @NotNull String id) throws DatabaseException {
@@ -123,7 +210,7 @@ public class MongoExecutor {
         try {
             BasicDBObject query = new BasicDBObject();
             query.put(UtilsConstants.MONGO_PRIMARY_KEY, id);
-            return dbCollection.count(query) == 1;
+            return exists(dbCollection, query);
         } catch (MongoException e) {
             throw processException(e, "contains");
         }
@@ -132,12 +219,59 @@ public class MongoExecutor {
     public static boolean contains(@NotNull DBCollection dbCollection, @NotNull BasicDBObject query) throws DatabaseException {
         log.trace("contains({})", query);
         try {
-            return dbCollection.count(query) >= 1;
+            return exists(dbCollection, query);
         } catch (MongoException e) {
             throw processException(e, "contains");
         }
     }
 
+    /**
+     * Stops at the first match and fetches only its id, unlike count() which scans all matches
+     */
+    private static boolean exists(DBCollection dbCollection, DBObject query) {
+        final DBCursor cursor = dbCollection.find(query, new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY, 1)).limit(1);
+        try {
+            return cursor.hasNext();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Checks many ids at once, one $in query per {@link #CONTAINS_CHUNK} ids
+     *
+     * @return the ids present in the collection
+     */
+    @NotNull
+    public static Set<String> containsAll(@NotNull DBCollection dbCollection, @NotNull Collection<String> ids) throws DatabaseException {
+        log.trace("containsAll({} ids)", ids.size());
+        final Set<String> ret = new HashSet<String>();
+        final BasicDBObject fields = new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY, 1);
+        try {
+            final List<String> chunk = new ArrayList<String>(Math.min(ids.size(), CONTAINS_CHUNK));
+            final Iterator<String> i = ids.iterator();
+            while (i.hasNext()) {
+                chunk.add(i.next());
+                if (chunk.size() == CONTAINS_CHUNK || !i.hasNext()) {
+                    final BasicDBObject query = new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY,
+                            new BasicDBObject("$in", chunk));
+                    final DBCursor cursor = dbCollection.find(query, fields).batchSize(chunk.size());
+                    try {
+                        for (DBObject obj : cursor) {
+                            ret.add(String.valueOf(obj.get(UtilsConstants.MONGO_PRIMARY_KEY)));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    chunk.clear();
+                }
+            }
+            return ret;
+        } catch (MongoException e) {
+            throw processException(e, "containsAll");
+        }
+    }
+
 //    /**
 //     * Returns object, converted to String
 //     */
@@ -176,6 +310,18 @@ public class MongoExecutor {
         if (log.isTraceEnabled()) {
             log.trace("getRecord({},{})", id, Arrays.toString(fields));
         }
+        final MongoRecordCache cache = getCache(dbCollection);
+        MongoRecordCache.Read read = null;
+        if (cache != null) {
+            final DBObject cached = cache.get(id, fields);
+            if (cached != null) {
+                if (MongoRecordCache.isNotFound(cached)) {
+                    throw new DatabaseException(DatabaseException.Type.NOT_FOUND, "document not found", null);
+                }
+                return cached;
+            }
+            read = cache.begin(id);
+        }
         try {
             BasicDBObject query = new BasicDBObject();
             query.put(UtilsConstants.MONGO_PRIMARY_KEY, id);
@@ -185,12 +331,19 @@ public class MongoExecutor {
                 fieldsRec.put(field, cnt++);
             }
             DBObject record = dbCollection.findOne(query, fieldsRec);
+            if (read != null) {
+                cache.put(read, fields, record);
+            }
             if (record == null) {
                 throw new DatabaseException(DatabaseException.Type.NOT_FOUND, "document not found", null);
             }
             return record;
         } catch (MongoException e) {
             throw processException(e, "getRecord");
+        } finally {
+            if (read != null) {
+                cache.end(read);
+            }
         }
     }
 
@@ -253,6 +406,180 @@ public class MongoExecutor {
         }
     }
 
+    /**
+     * Lazy variant of {@link #findField(DBCollection, BasicDBObject, String)}: documents are fetched batchSize at a
+     * time while iterating, the iterator must be closed unless exhausted
+     */
+    @NotNull
+    public static MongoFieldIterator iterateField(@NotNull DBCollection dbCollection, @NotNull BasicDBObject query,
+                                                  @NotNull String field, int batchSize) throws DatabaseException {
+        log.trace("iterateField({},{})", query, field);
+        try {
+            return new MongoFieldIterator(findCursor(dbCollection, query, field).batchSize(batchSize), field);
+        } catch (MongoException e) {
+            throw processException(e, "iterateField");
+        }
+    }
+
+    /**
+     * Lazy variant of {@link #findIds(DBCollection, BasicDBObject)}, see {@link #iterateField(DBCollection, BasicDBObject, String, int)}
+     */
+    @NotNull
+    public static MongoFieldIterator iterateIds(@NotNull DBCollection dbCollection, @NotNull BasicDBObject query,
+                                                int batchSize) throws DatabaseException {
+        return iterateField(dbCollection, query, UtilsConstants.MONGO_PRIMARY_KEY, batchSize);
+    }
+
+    /**
+     * Scans ids of documents matching the query in parallel: the _id space is split into ranges of about the same
+     * number of documents and every range is iterated by its own thread. Each id is visited once, in no particular
+     * order, the visitor is called concurrently. Ids of the collection have to be of one type, range queries don't
+     * match ids of other types.
+     * <p/>
+     * Split points are quantiles of {@link #SPLIT_SAMPLES} random documents per range ($sample, MongoDB 3.2 or
+     * later), one aggregation reading only the sampled documents. The sample is taken from the whole collection, so
+     * for selective queries whose matches are not spread evenly over the ids pass the bounds with
+     * {@link #findIdsParallel(DBCollection, BasicDBObject, List, int, int, Visitor)} instead.
+     *
+     * @param parts     number of ranges and threads
+     * @param batchSize documents fetched at a time by every thread
+     * @return number of ids visited
+     */
+    public static long findIdsParallel(@NotNull DBCollection dbCollection, @NotNull BasicDBObject query,
+                                       int parts, int batchSize, @NotNull Visitor visitor) throws DatabaseException {
+        log.trace("findIdsParallel({},{})", query, parts);
+        if (parts < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("parts " + parts + ", batchSize " + batchSize);
+        }
+        final List<Object> bounds;
+        try {
+            bounds = splitIds(dbCollection, query, parts);
+        } catch (MongoException e) {
+            throw processException(e, "findIdsParallel");
+        }
+        return findIdsParallel(dbCollection, query, bounds, parts, batchSize, visitor);
+    }
+
+    /**
+     * Same as {@link #findIdsParallel(DBCollection, BasicDBObject, int, int, Visitor)} with split points known to the
+     * caller, no query is made to find them. Ranges are visited by at most {@code threads} threads, the others wait
+     * for a free one. The first failure (of Mongo or of the visitor) stops the other ranges and is thrown.
+     *
+     * @param bounds  ascending ids, n bounds give n + 1 ranges: below the first one, between neighbours and from the
+     *                last one up
+     * @param threads maximum number of ranges visited at once
+     * @return number of ids visited
+     */
+    public static long findIdsParallel(@NotNull final DBCollection dbCollection, @NotNull final BasicDBObject query,
+                                       @NotNull final List<?> bounds, int threads, final int batchSize,
+                                       @NotNull final Visitor visitor) throws DatabaseException {
+        log.trace("findIdsParallel({},{} bounds,{})", query, bounds.size(), threads);
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("threads " + threads + ", batchSize " + batchSize);
+        }
+        final AtomicBoolean failed = new AtomicBoolean();
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, bounds.size() + 1),
+                new NamedThreadFactory(MongoExecutor.class));
+        try {
+            final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int i = 0; i <= bounds.size(); i++) {
+                final Object from = i == 0 ? null : bounds.get(i - 1);
+                final Object to = i == bounds.size() ? null : bounds.get(i);
+                futures.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        if (failed.get()) {
+                            // waited for a thread while another range failed
+                            return 0L;
+                        }
+                        try {
+                            return visitRange(dbCollection, query, from, to, batchSize, visitor, failed);
+                        } catch (Exception e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                    }
+                }));
+            }
+            long ret = 0;
+            for (Future<Long> f : futures) {
+                ret += f.get();
+            }
+            return ret;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException(DatabaseException.Type.RUNTIME, "findIdsParallel interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IllegalStateException && cause.getCause() instanceof DatabaseException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof DatabaseException) {
+                throw (DatabaseException) cause;
+            }
+            throw new DatabaseException(DatabaseException.Type.RUNTIME, "unable to process findIdsParallel", cause);
+        } finally {
+            failed.set(true);
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return up to parts - 1 distinct ids splitting the sampled matches into ranges of about the same size, ascending
+     */
+    private static List<Object> splitIds(DBCollection dbCollection, BasicDBObject query, int parts) {
+        final List<Object> ret = new ArrayList<Object>();
+        if (parts == 1) {
+            return ret;
+        }
+        // $sample as the first stage picks random documents without scanning the collection, the sample is small
+        // enough to be filtered and sorted in memory
+        final List<DBObject> pipeline = Arrays.<DBObject>asList(
+                new BasicDBObject("$sample", new BasicDBObject("size", parts * SPLIT_SAMPLES)),
+                new BasicDBObject("$match", query),
+                new BasicDBObject("$project", new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY, 1)),
+                new BasicDBObject("$sort", new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY, 1)));
+        final List<Object> sample = new ArrayList<Object>();
+        for (DBObject o : dbCollection.aggregate(pipeline).results()) {
+            sample.add(o.get(UtilsConstants.MONGO_PRIMARY_KEY));
+        }
+        for (int i = 1; i < parts && !sample.isEmpty(); i++) {
+            final Object id = sample.get(sample.size() * i / parts);
+            if (id != null && (ret.isEmpty() || !ret.get(ret.size() - 1).equals(id))) {
+                ret.add(id);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param from lowest id of the range (inclusive), null for no bound
+     * @param to   highest id of the range (exclusive), null for no bound
+     */
+    private static long visitRange(DBCollection dbCollection, BasicDBObject query, Object from, Object to,
+                                   int batchSize, Visitor visitor, AtomicBoolean failed) throws DatabaseException {
+        final BasicDBObject range = new BasicDBObject();
+        if (from != null) {
+            range.put("$gte", from);
+        }
+        if (to != null) {
+            range.put("$lt", to);
+        }
+        final BasicDBObject q = range.isEmpty() ? query
+                : new BasicDBObject("$and", Arrays.asList(query, new BasicDBObject(UtilsConstants.MONGO_PRIMARY_KEY, range)));
+        long ret = 0;
+        final MongoFieldIterator i = iterateIds(dbCollection, q, batchSize);
+        try {
+            while (!failed.get() && i.hasNext()) {
+                visitor.visit(i.next());
+                ret++;
+            }
+        } finally {
+            i.close();
+        }
+        return ret;
+    }
+
     public static DBCursor findCursor(@NotNull DBCollection dbCollection, @NotNull BasicDBObject query, String field) throws DatabaseException {
         return dbCollection.find(query, new BasicDBObject(field, 1));
     }
@@ -280,6 +607,8 @@ public class MongoExecutor {
             WriteResult res = dbCollection.remove(query, defaultConcern);
         } catch (MongoException e) {
             throw processException(e, "remove");
+        } finally {
+            invalidate(dbCollection, id);
         }
     }
 
@@ -297,6 +626,8 @@ public class MongoExecutor {
             WriteResult res = dbCollection.remove(query, defaultConcern);
         } catch (MongoException e) {
             throw processException(e, "removeId");
+        } finally {
+            invalidate(dbCollection, id);
         }
     }
 
@@ -315,6 +646,9 @@ public class MongoExecutor {
             WriteResult res = to.insert(from.findAndRemove(query), defaultConcern);
         } catch (MongoException e) {
             throw processException(e, "move");
+        } finally {
+            invalidate(from, id);
+            invalidate(to, id);
         }
     }
 
@@ -332,6 +666,16 @@ public class MongoExecutor {
         } catch (MongoException e) {
             throw processException(e, "removeAll");
 //            throw new DatabaseException(DatabaseException.Type.RUNTIME, "removeAll: " + msg, null);
+        } finally {
+            invalidateQuery(dbCollection, query);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Receives values of {@link #findIdsParallel(DBCollection, BasicDBObject, int, int, Visitor)}, called
+     * concurrently from several threads
+     */
+    public interface Visitor {
+        void visit(@Nullable String value);
+    }
+}
@@ -0,0 +1,87 @@
+package org.repetti.utils;
+
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Values of one field of the documents of a cursor, fetched lazily one batch at a time, so at most one batch of
+ * documents is held in memory. Values are converted to String with toString(), null stays null.
+ * <p/>
+ * The cursor is closed when the iteration is exhausted, otherwise {@link #close()} must be called, e.g. in a
+ * try-with-resources. Mongo failures are thrown as {@link IllegalStateException} caused by
+ * {@link DatabaseException}, Iterator methods can't throw checked exceptions. Instances are not thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class MongoFieldIterator implements Iterator<String>, Closeable {
+    private final DBCursor cursor;
+    private final String field;
+    private boolean closed;
+
+    /**
+     * @param cursor cursor to read, closed by this iterator
+     */
+    public MongoFieldIterator(@NotNull DBCursor cursor, @NotNull String field) {
+        this.cursor = cursor;
+        this.field = field;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (cursor.hasNext()) {
+                return true;
+            }
+        } catch (MongoException e) {
+            close();
+            throw new IllegalStateException(new DatabaseException(DatabaseException.Type.RUNTIME,
+                    "unable to iterate " + field, e));
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final DBObject obj;
+        try {
+            obj = cursor.next();
+        } catch (MongoException e) {
+            close();
+            throw new IllegalStateException(new DatabaseException(DatabaseException.Type.RUNTIME,
+                    "unable to iterate " + field, e));
+        }
+        final Object value = obj.get(field);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Releases the server side cursor, may be called several times
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            cursor.close();
+        }
+    }
+}
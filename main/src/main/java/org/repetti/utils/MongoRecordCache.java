@@ -0,0 +1,319 @@
+package org.repetti.utils;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of records of one collection read by {@link MongoExecutor#getRecord(com.mongodb.DBCollection, String, String...)},
+ * enabled by {@link MongoExecutor#enableCache(com.mongodb.DBCollection, int, long)}.
+ * <p/>
+ * Entries are keyed by id and requested fields, "document not found" is cached as well. Least recently used entries
+ * are evicted above the maximum size, entries expire after the time to live. Writes through {@link MongoExecutor}
+ * and {@link MongoBatchWriter} invalidate the ids they touch (or the whole cache for writes by query), changes made
+ * by other means are seen after expiration only. Records are deep copied when stored and returned.
+ * <p/>
+ * Entries are indexed by id, so invalidation costs the number of entries of the id. Every id being read or cached
+ * has its own version, a read racing with a write of the same id is not stored, reads of other ids are not affected.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class MongoRecordCache {
+    /**
+     * Cached absence of the document
+     */
+    private static final DBObject NOT_FOUND = new BasicDBObject();
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Cached> entries;
+    /**
+     * Ids having entries or reads in progress
+     */
+    private final Map<String, Id> ids = new HashMap<String, Id>();
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSize maximum number of entries
+     * @param ttl     time to live of entries in milliseconds
+     */
+    public MongoRecordCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl * 1000000L;
+        this.entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                if (size() > MongoRecordCache.this.maxSize) {
+                    evictions++;
+                    unindex(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return copy of the record, {@link #NOT_FOUND} if the document is known to be missing, null if not cached
+     */
+    @Nullable
+    synchronized DBObject get(@NotNull String id, @NotNull String[] fields) {
+        final Key key = new Key(id, fields);
+        final Cached e = entries.get(key);
+        if (e == null || e.expires - System.nanoTime() < 0) {
+            if (e != null) {
+                entries.remove(key);
+                unindex(key);
+                evictions++;
+            }
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.record == NOT_FOUND ? NOT_FOUND : (DBObject) copy(e.record);
+    }
+
+    static boolean isNotFound(DBObject record) {
+        return record == NOT_FOUND;
+    }
+
+    /**
+     * Starts reading the document from the db, {@link #end(Read)} has to follow
+     */
+    @NotNull
+    synchronized Read begin(@NotNull String id) {
+        Id state = ids.get(id);
+        if (state == null) {
+            state = new Id();
+            ids.put(id, state);
+        }
+        state.reading++;
+        return new Read(id, state, state.version);
+    }
+
+    /**
+     * Stores the record unless the document was invalidated since the read began, ends the read
+     *
+     * @param record null if the document was not found
+     */
+    synchronized void put(@NotNull Read read, @NotNull String[] fields, @Nullable DBObject record) {
+        if (read.done) {
+            return;
+        }
+        if (read.state.version == read.version) {
+            final Key key = new Key(read.id, fields.clone());
+            read.state.keys.add(key);
+            entries.put(key, new Cached(record == null ? NOT_FOUND : (DBObject) copy(record), System.nanoTime() + ttlNanos));
+        }
+        end(read);
+    }
+
+    /**
+     * Ends the read without storing anything, does nothing if already ended
+     */
+    synchronized void end(@NotNull Read read) {
+        if (!read.done) {
+            read.done = true;
+            read.state.reading--;
+            release(read.id, read.state);
+        }
+    }
+
+    /**
+     * Drops all entries of the document
+     */
+    public synchronized void invalidate(@NotNull String id) {
+        final Id state = ids.get(id);
+        if (state != null) {
+            state.version++;
+            for (Key key : state.keys) {
+                entries.remove(key);
+            }
+            state.keys.clear();
+            release(id, state);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        final Iterator<Id> i = ids.values().iterator();
+        while (i.hasNext()) {
+            final Id state = i.next();
+            state.version++;
+            state.keys.clear();
+            if (state.reading == 0) {
+                i.remove();
+            }
+        }
+    }
+
+    private void unindex(Key key) {
+        final Id state = ids.get(key.id);
+        if (state != null) {
+            state.keys.remove(key);
+            release(key.id, state);
+        }
+    }
+
+    /**
+     * Forgets the id once it has neither entries nor reads
+     */
+    private void release(String id, Id state) {
+        if (state.reading == 0 && state.keys.isEmpty()) {
+            ids.remove(id);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of entries dropped because of size or expiration
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Copies documents, lists, dates and byte arrays, other values of BSON documents are immutable
+     */
+    private static Object copy(Object value) {
+        if (value instanceof BasicDBList) {
+            final BasicDBList ret = new BasicDBList();
+            for (Object o : (BasicDBList) value) {
+                ret.add(copy(o));
+            }
+            return ret;
+        }
+        if (value instanceof DBObject) {
+            final DBObject src = (DBObject) value;
+            final BasicDBObject ret = new BasicDBObject();
+            for (String key : src.keySet()) {
+                ret.put(key, copy(src.get(key)));
+            }
+            return ret;
+        }
+        if (value instanceof List) {
+            final List<?> src = (List<?>) value;
+            final List<Object> ret = new ArrayList<Object>(src.size());
+            for (Object o : src) {
+                ret.add(copy(o));
+            }
+            return ret;
+        }
+        if (value instanceof Map) {
+            final Map<Object, Object> ret = new LinkedHashMap<Object, Object>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                ret.put(e.getKey(), copy(e.getValue()));
+            }
+            return ret;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MongoRecordCache{size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + '}';
+    }
+
+    /**
+     * Read of a document in progress
+     */
+    static class Read {
+        private final String id;
+        private final Id state;
+        private final long version;
+        private boolean done;
+
+        private Read(String id, Id state, long version) {
+            this.id = id;
+            this.state = state;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Entries and reads of one id
+     */
+    private static class Id {
+        private final Set<Key> keys = new HashSet<Key>(4);
+        /**
+         * Incremented by every invalidation of the id
+         */
+        private long version;
+        private int reading;
+    }
+
+    private static class Key {
+        private final String id;
+        private final String[] fields;
+        private final int hash;
+
+        private Key(String id, String[] fields) {
+            this.id = id;
+            this.fields = fields;
+            int h = id.hashCode();
+            for (String f : fields) {
+                h = h * 31 + (f == null ? 0 : f.hashCode());
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash && id.equals(other.id) && Arrays.equals(fields, other.fields);
+        }
+    }
+
+    private static class Cached {
+        private final DBObject record;
+        private final long expires;
+
+        private Cached(DBObject record, long expires) {
+            this.record = record;
+            this.expires = expires;
+        }
+    }
+}
@@ -14,6 +14,14 @@ public class UtilsException extends Exception {
         this.type = type;
     }
 
+    /**
+     * @param stackTrace false for exceptions thrown often on expected failures, the stack trace is not filled in
+     */
+    public UtilsException(Type type, String message, Throwable cause, boolean stackTrace) {
+        super(message, cause, true, stackTrace);
+        this.type = type;
+    }
+
     public enum Type {
         NOT_FOUND,
         PARAMETERS,
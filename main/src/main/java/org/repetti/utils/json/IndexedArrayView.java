@@ -0,0 +1,145 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Array of strings with constant time membership checks, for example a permission list checked per request.
+ * <p/>
+ * A hash set of textual values of the array is built on the first check and kept up to date by {@link #add(String)}
+ * and {@link #remove(String)}. Changes made to the array directly are detected only when they change its size,
+ * call {@link #invalidate()} after other modifications. Non-textual elements are ignored, same as in
+ * {@link org.repetti.utils.JsonHelper#contains(ArrayNode, String)}.
+ * <p/>
+ * Checks may run concurrently, modifications must not run concurrently with anything else.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class IndexedArrayView {
+    private final ArrayNode array;
+    private volatile Index index;
+
+    public IndexedArrayView(@NotNull ArrayNode array) {
+        this.array = array;
+    }
+
+    @NotNull
+    public ArrayNode getArray() {
+        return array;
+    }
+
+    public boolean contains(String value) {
+        return value != null && index().values.contains(value);
+    }
+
+    /**
+     * @return true if all values are in the array, true for an empty collection
+     */
+    public boolean containsAll(@NotNull Collection<String> values) {
+        final Set<String> set = index().values;
+        for (String s : values) {
+            if (s == null || !set.contains(s)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return values present in the array, in iteration order of the argument
+     */
+    @NotNull
+    public Set<String> intersect(@NotNull Collection<String> values) {
+        final Set<String> set = index().values;
+        final Set<String> ret = new LinkedHashSet<String>();
+        for (String s : values) {
+            if (s != null && set.contains(s)) {
+                ret.add(s);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Appends the value to the array
+     */
+    public void add(@NotNull String value) {
+        final Index i = index;
+        array.add(value);
+        if (i != null && i.size + 1 == array.size()) {
+            i.values.add(value);
+            i.size++;
+        } else {
+            index = null;
+        }
+    }
+
+    /**
+     * Removes all occurrences of the value from the array
+     *
+     * @return true if the array contained the value
+     */
+    public boolean remove(@NotNull String value) {
+        final Index i = index;
+        // an index not matching the array before the removal is stale, patching it would hide the direct changes
+        final boolean current = i != null && i.size == array.size();
+        boolean ret = false;
+        final Iterator<JsonNode> it = array.elements();
+        while (it.hasNext()) {
+            if (value.equals(it.next().textValue())) {
+                it.remove();
+                ret = true;
+            }
+        }
+        if (!current) {
+            index = null;
+        } else if (ret) {
+            i.values.remove(value);
+            i.size = array.size();
+        }
+        return ret;
+    }
+
+    /**
+     * Drops the index, it is rebuilt on the next check
+     */
+    public void invalidate() {
+        index = null;
+    }
+
+    private Index index() {
+        Index ret = index;
+        if (ret == null || ret.size != array.size()) {
+            ret = new Index(array);
+            index = ret;
+        }
+        return ret;
+    }
+
+    private static class Index {
+        private final Set<String> values;
+        /**
+         * Size of the array the index corresponds to
+         */
+        private int size;
+
+        private Index(ArrayNode array) {
+            this.size = array.size();
+            this.values = new HashSet<String>(Math.max(16, (int) (size / .75f) + 1));
+            for (JsonNode j : array) {
+                if (j.isTextual()) {
+                    values.add(j.textValue());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Structural comparison of two JSON trees producing RFC 6902 JSON Patch operations (add, remove, replace) that
+ * transform the first tree into the second one.
+ * <p/>
+ * Structural hashes of subtrees ({@link JsonHash}) are computed once per instance and cached. Subtrees with
+ * different hashes differ without further checks, equal hashes are confirmed with equals() so a collision can't
+ * hide a change. Arrays are aligned by element hashes (common prefix and suffix are trimmed, the rest is aligned by
+ * edit distance), changed elements are compared recursively.
+ * <p/>
+ * Reuse an instance to compare against the same trees several times. Instances are not thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonDiff {
+    public static final String OP = "op";
+    public static final String PATH = "path";
+    public static final String VALUE = "value";
+    public static final String OP_ADD = "add";
+    public static final String OP_REMOVE = "remove";
+    public static final String OP_REPLACE = "replace";
+
+    /**
+     * Above this size of the edit distance matrix arrays are compared by position
+     */
+    private static final long MAX_ALIGNMENT_CELLS = 1 << 22;
+
+    private final JsonNodeFactory factory = JsonNodeFactory.instance;
+    private final JsonHash hashes;
+
+    public JsonDiff() {
+        this(new JsonHash());
+    }
+
+    /**
+     * @param hashes memoized hashes to reuse, for example when diffing many trees sharing subtrees
+     */
+    public JsonDiff(@NotNull JsonHash hashes) {
+        this.hashes = hashes;
+    }
+
+    /**
+     * @return JSON Patch transforming {@code from} to {@code to}, empty array if trees are equal
+     */
+    public static ArrayNode diff(@NotNull JsonNode from, @NotNull JsonNode to) {
+        return new JsonDiff().compare(from, to);
+    }
+
+    /**
+     * Escapes a field name to be used as JSON Pointer segment (RFC 6901)
+     */
+    public static String escape(@NotNull String name) {
+        if (name.indexOf('~') < 0 && name.indexOf('/') < 0) {
+            return name;
+        }
+        return name.replace("~", "~0").replace("/", "~1");
+    }
+
+    @NotNull
+    public ArrayNode compare(@NotNull JsonNode from, @NotNull JsonNode to) {
+        ArrayNode patch = factory.arrayNode();
+        compare(patch, new StringBuilder(), from, to);
+        return patch;
+    }
+
+    /**
+     * Structural hash of the subtree, see {@link JsonHash}
+     */
+    public long hash(@NotNull JsonNode node) {
+        return hashes.hash(node);
+    }
+
+    private boolean sameHash(JsonNode a, JsonNode b) {
+        return a == b || (a.getNodeType() == b.getNodeType() && hash(a) == hash(b));
+    }
+
+    private boolean same(JsonNode a, JsonNode b) {
+        return sameHash(a, b) && (a == b || a.equals(b));
+    }
+
+    private void compare(ArrayNode patch, StringBuilder path, JsonNode from, JsonNode to) {
+        if (same(from, to)) {
+            return;
+        }
+        if (from.isObject() && to.isObject()) {
+            compareObjects(patch, path, from, to);
+        } else if (from.isArray() && to.isArray()) {
+            compareArrays(patch, path, (ArrayNode) from, (ArrayNode) to);
+        } else {
+            addOp(patch, OP_REPLACE, path, to);
+        }
+    }
+
+    private void compareObjects(ArrayNode patch, StringBuilder path, JsonNode from, JsonNode to) {
+        final int length = path.length();
+        Iterator<Map.Entry<String, JsonNode>> i = from.fields();
+        while (i.hasNext()) {
+            Map.Entry<String, JsonNode> e = i.next();
+            path.append('/').append(escape(e.getKey()));
+            JsonNode t = to.get(e.getKey());
+            if (t == null) {
+                addOp(patch, OP_REMOVE, path, null);
+            } else {
+                compare(patch, path, e.getValue(), t);
+            }
+            path.setLength(length);
+        }
+        i = to.fields();
+        while (i.hasNext()) {
+            Map.Entry<String, JsonNode> e = i.next();
+            if (!from.has(e.getKey())) {
+                path.append('/').append(escape(e.getKey()));
+                addOp(patch, OP_ADD, path, e.getValue());
+                path.setLength(length);
+            }
+        }
+    }
+
+    /**
+     * Operations are emitted from the end of the array to the beginning, so indexes of every operation refer to
+     * elements not touched by the previous ones.
+     */
+    private void compareArrays(ArrayNode patch, StringBuilder path, ArrayNode from, ArrayNode to) {
+        int start = 0;
+        int endFrom = from.size();
+        int endTo = to.size();
+        while (start < endFrom && start < endTo && same(from.get(start), to.get(start))) {
+            start++;
+        }
+        while (endFrom > start && endTo > start && same(from.get(endFrom - 1), to.get(endTo - 1))) {
+            endFrom--;
+            endTo--;
+        }
+        final int n = endFrom - start;
+        final int m = endTo - start;
+        if ((long) (n + 1) * (m + 1) > MAX_ALIGNMENT_CELLS) {
+            comparePositional(patch, path, from, to, start, n, m);
+            return;
+        }
+        // d[i][j] - edit distance between from[start, start + i) and to[start, start + j)
+        final int[][] d = new int[n + 1][m + 1];
+        for (int i = 0; i <= n; i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= m; j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            final JsonNode a = from.get(start + i - 1);
+            for (int j = 1; j <= m; j++) {
+                if (sameHash(a, to.get(start + j - 1))) {
+                    d[i][j] = d[i - 1][j - 1];
+                } else {
+                    d[i][j] = 1 + Math.min(d[i - 1][j - 1], Math.min(d[i - 1][j], d[i][j - 1]));
+                }
+            }
+        }
+        int i = n;
+        int j = m;
+        while (i > 0 || j > 0) {
+            if (i > 0 && j > 0 && sameHash(from.get(start + i - 1), to.get(start + j - 1))) {
+                // aligned by hash, a collision is compared like a substitution
+                if (!same(from.get(start + i - 1), to.get(start + j - 1))) {
+                    compareElement(patch, path, start + i - 1, from.get(start + i - 1), to.get(start + j - 1));
+                }
+                i--;
+                j--;
+            } else if (i > 0 && j > 0 && d[i][j] == d[i - 1][j - 1] + 1) {
+                compareElement(patch, path, start + i - 1, from.get(start + i - 1), to.get(start + j - 1));
+                i--;
+                j--;
+            } else if (i > 0 && d[i][j] == d[i - 1][j] + 1) {
+                addElementOp(patch, path, OP_REMOVE, start + i - 1, null);
+                i--;
+            } else {
+                addElementOp(patch, path, OP_ADD, start + i, to.get(start + j - 1));
+                j--;
+            }
+        }
+    }
+
+    /**
+     * Fallback for huge arrays: elements are compared pairwise, the tail is added or removed
+     */
+    private void comparePositional(ArrayNode patch, StringBuilder path, ArrayNode from, ArrayNode to,
+                                   int start, int n, int m) {
+        for (int k = n - 1; k >= m; k--) {
+            addElementOp(patch, path, OP_REMOVE, start + k, null);
+        }
+        for (int k = Math.min(n, m) - 1; k >= 0; k--) {
+            compareElement(patch, path, start + k, from.get(start + k), to.get(start + k));
+        }
+        for (int k = n; k < m; k++) {
+            addElementOp(patch, path, OP_ADD, start + k, to.get(start + k));
+        }
+    }
+
+    private void compareElement(ArrayNode patch, StringBuilder path, int index, JsonNode from, JsonNode to) {
+        final int length = path.length();
+        path.append('/').append(index);
+        compare(patch, path, from, to);
+        path.setLength(length);
+    }
+
+    private void addElementOp(ArrayNode patch, StringBuilder path, String op, int index, JsonNode value) {
+        final int length = path.length();
+        path.append('/').append(index);
+        addOp(patch, op, path, value);
+        path.setLength(length);
+    }
+
+    private void addOp(ArrayNode patch, String op, CharSequence path, JsonNode value) {
+        ObjectNode o = patch.addObject();
+        o.put(OP, op);
+        o.put(PATH, path.toString());
+        if (value != null) {
+            o.set(VALUE, value);
+        }
+    }
+}
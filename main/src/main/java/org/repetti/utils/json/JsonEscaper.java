@@ -0,0 +1,159 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.core.io.CharTypes;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes strings as quoted JSON literals straight into an {@link Appendable}, output is the same as
+ * {@code new TextNode(s).toString()}: quotes, backslashes and control characters are escaped, everything else is
+ * copied as is.
+ * <p/>
+ * Strings that need no escaping are appended with a single call, otherwise unescaped runs are appended between
+ * escape sequences. {@link StringBuilder} and {@link Writer} are written without intermediate copies.
+ * <p/>
+ * An instance additionally caches quoted forms of field names, so repeated keys are written with one append.
+ * Instances are not thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonEscaper {
+    public static final int DEFAULT_MAX_CACHED_KEYS = 1024;
+    /**
+     * Longer keys are not cached
+     */
+    private static final int MAX_CACHED_KEY_LENGTH = 64;
+    /**
+     * Escape sequences of ASCII characters, null if the character is copied as is
+     */
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        final int[] codes = CharTypes.get7BitOutputEscapes();
+        final char[] hex = CharTypes.copyHexChars();
+        for (int c = 0; c < codes.length && c < ESCAPES.length; c++) {
+            if (codes[c] < 0) {
+                ESCAPES[c] = "\\u00" + hex[c >> 4] + hex[c & 0xF];
+            } else if (codes[c] > 0) {
+                ESCAPES[c] = "\\" + (char) codes[c];
+            }
+        }
+    }
+
+    private final Map<String, String> keys = new HashMap<String, String>();
+    private final int maxCachedKeys;
+
+    public JsonEscaper() {
+        this(DEFAULT_MAX_CACHED_KEYS);
+    }
+
+    /**
+     * @param maxCachedKeys number of distinct field names kept quoted, 0 disables the cache
+     */
+    public JsonEscaper(int maxCachedKeys) {
+        this.maxCachedKeys = maxCachedKeys;
+    }
+
+    /**
+     * @return quoted and escaped string
+     */
+    public static String quote(@NotNull String s) {
+        final StringBuilder sb = new StringBuilder(s.length() + 2 + (s.length() >> 4));
+        try {
+            appendQuoted(sb, s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the string in quotes, escaping characters where necessary
+     */
+    public static void appendQuoted(@NotNull Appendable out, @NotNull String s) throws IOException {
+        out.append('"');
+        final int length = s.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < ESCAPES.length && ESCAPES[c] != null) {
+                append(out, s, start, i);
+                out.append(ESCAPES[c]);
+                start = i + 1;
+            }
+        }
+        append(out, s, start, length);
+        out.append('"');
+    }
+
+    /**
+     * Appends characters {@code [offset, offset + length)} in quotes, escaping characters where necessary
+     */
+    public static void appendQuoted(@NotNull Appendable out, @NotNull char[] s, int offset, int length) throws IOException {
+        out.append('"');
+        final int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            final char c = s[i];
+            if (c < ESCAPES.length && ESCAPES[c] != null) {
+                append(out, s, start, i);
+                out.append(ESCAPES[c]);
+                start = i + 1;
+            }
+        }
+        append(out, s, start, end);
+        out.append('"');
+    }
+
+    private static void append(Appendable out, String s, int start, int end) throws IOException {
+        if (start == end) {
+            return;
+        }
+        if (start == 0 && end == s.length()) {
+            out.append(s);
+        } else if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(s, start, end);
+        } else if (out instanceof Writer) {
+            ((Writer) out).write(s, start, end - start);
+        } else {
+            out.append(s, start, end);
+        }
+    }
+
+    private static void append(Appendable out, char[] s, int start, int end) throws IOException {
+        if (start == end) {
+            return;
+        }
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(s, start, end - start);
+        } else if (out instanceof Writer) {
+            ((Writer) out).write(s, start, end - start);
+        } else {
+            for (int i = start; i < end; i++) {
+                out.append(s[i]);
+            }
+        }
+    }
+
+    /**
+     * Appends a field name in quotes, quoted forms of short names are cached
+     */
+    public void appendKey(@NotNull Appendable out, @NotNull String name) throws IOException {
+        String quoted = keys.get(name);
+        if (quoted == null) {
+            if (name.length() > MAX_CACHED_KEY_LENGTH || keys.size() >= maxCachedKeys) {
+                appendQuoted(out, name);
+                return;
+            }
+            quoted = quote(name);
+            keys.put(name, quoted);
+        }
+        out.append(quoted);
+    }
+}
@@ -0,0 +1,125 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NumericNode;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Canonical 64 bit structural hash of JSON trees: equal trees have equal hashes, object fields are hashed
+ * independently of their order (same as {@link JsonNode#equals(Object)}), numbers of different node types differ.
+ * <p/>
+ * Hashes of subtrees are memoized by node identity, so hashing a tree that shares subtrees with already hashed ones
+ * only walks the new parts. Trees must not be modified while an instance remembers their hashes, use a new instance
+ * or {@link #clear()} after modifications. Instances are not thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonHash {
+    private final Map<JsonNode, Long> memo = new IdentityHashMap<JsonNode, Long>();
+
+    /**
+     * @return hash of the tree computed without memoization between calls
+     */
+    public static long of(@NotNull JsonNode node) {
+        return new JsonHash().hash(node);
+    }
+
+    public long hash(@NotNull JsonNode node) {
+        Long ret = memo.get(node);
+        if (ret == null) {
+            ret = compute(node);
+            memo.put(node, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Stores a known hash of the node, used when an equal tree has already been hashed
+     */
+    void remember(@NotNull JsonNode node, long hash) {
+        memo.put(node, hash);
+    }
+
+    /**
+     * Forgets all memoized hashes
+     */
+    public void clear() {
+        memo.clear();
+    }
+
+    private long compute(JsonNode node) {
+        long h;
+        switch (node.getNodeType()) {
+            case OBJECT: {
+                h = 0x5bd1e995L;
+                Iterator<Map.Entry<String, JsonNode>> i = node.fields();
+                while (i.hasNext()) {
+                    Map.Entry<String, JsonNode> e = i.next();
+                    h += mix(hash(e.getKey()) * 31 + hash(e.getValue()));
+                }
+                break;
+            }
+            case ARRAY: {
+                h = 0x27d4eb2fL;
+                for (JsonNode t : node) {
+                    h = h * 31 + hash(t);
+                }
+                break;
+            }
+            case STRING:
+                h = hash(node.textValue());
+                break;
+            case NUMBER:
+                if (node.isIntegralNumber() && node.canConvertToLong()) {
+                    h = node.longValue();
+                } else if (node.isFloatingPointNumber() && !node.isBigDecimal()) {
+                    h = Double.doubleToLongBits(node.doubleValue());
+                } else {
+                    h = node.hashCode();
+                }
+                // numbers of different node types are not equal
+                h = h * 31 + ((NumericNode) node).numberType().ordinal();
+                break;
+            case BOOLEAN:
+                h = node.booleanValue() ? 1231 : 1237;
+                break;
+            case NULL:
+            case MISSING:
+                h = 0;
+                break;
+            default:
+                h = node.hashCode();
+        }
+        return mix(h * 31 + node.getNodeType().ordinal());
+    }
+
+    /**
+     * 64 bit FNV-1a
+     */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Finalization step of MurmurHash3
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e9a63L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
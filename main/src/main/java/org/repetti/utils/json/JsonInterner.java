@@ -0,0 +1,177 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicates JSON trees: equal subtrees of all interned trees are collapsed into one shared instance, so many
+ * mostly identical documents take the memory of their distinct parts only, and equal subtrees can be compared by
+ * identity.
+ * <p/>
+ * Trees are interned bottom-up, a container is looked up by its {@link JsonHash} and compared to the candidate by
+ * identity of the (already interned) children, so interning costs one pass over the tree. The argument is not
+ * modified, containers not seen before are copied.
+ * <p/>
+ * Interned nodes are shared and must never be modified. When the cache is full new subtrees are returned without
+ * being cached. Instances are thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonInterner {
+    public static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+    private final JsonNodeFactory factory = JsonNodeFactory.instance;
+    private final ConcurrentMap<Key, JsonNode> cache = new ConcurrentHashMap<Key, JsonNode>();
+    private final int maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public JsonInterner() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize maximum number of distinct subtrees kept
+     */
+    public JsonInterner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return tree equal to the argument, built of shared subtrees
+     */
+    @NotNull
+    public JsonNode intern(@NotNull JsonNode node) {
+        return intern(node, new JsonHash());
+    }
+
+    private JsonNode intern(JsonNode node, JsonHash hashes) {
+        final JsonNode candidate;
+        if (node.isObject()) {
+            final ObjectNode o = factory.objectNode();
+            final Iterator<Map.Entry<String, JsonNode>> i = node.fields();
+            while (i.hasNext()) {
+                final Map.Entry<String, JsonNode> e = i.next();
+                o.set(e.getKey(), intern(e.getValue(), hashes));
+            }
+            candidate = o;
+        } else if (node.isArray()) {
+            final ArrayNode a = factory.arrayNode();
+            for (JsonNode t : node) {
+                a.add(intern(t, hashes));
+            }
+            candidate = a;
+        } else {
+            candidate = node;
+        }
+        final long hash = hashes.hash(candidate);
+        final JsonNode ret = cache.get(new Key(hash, candidate));
+        if (ret != null) {
+            hits.incrementAndGet();
+            hashes.remember(ret, hash);
+            return ret;
+        }
+        misses.incrementAndGet();
+        if (cache.size() >= maxSize) {
+            return candidate;
+        }
+        final JsonNode prev = cache.putIfAbsent(new Key(hash, candidate), candidate);
+        if (prev != null) {
+            hashes.remember(prev, hash);
+            return prev;
+        }
+        return candidate;
+    }
+
+    /**
+     * @return number of distinct subtrees cached
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return number of subtrees replaced by cached ones
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of subtrees not found in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Subtree with precomputed hash, children of containers are compared by identity first
+     */
+    private static class Key {
+        private final long hash;
+        private final JsonNode node;
+
+        private Key(long hash, JsonNode node) {
+            this.hash = hash;
+            this.node = node;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash && sameShallow(node, other.node);
+        }
+
+        private static boolean sameShallow(JsonNode a, JsonNode b) {
+            if (a == b) {
+                return true;
+            }
+            if (a.getNodeType() != b.getNodeType() || a.size() != b.size()) {
+                return false;
+            }
+            if (a.isObject()) {
+                final Iterator<Map.Entry<String, JsonNode>> i = a.fields();
+                while (i.hasNext()) {
+                    final Map.Entry<String, JsonNode> e = i.next();
+                    final JsonNode t = b.get(e.getKey());
+                    if (t == null || (t != e.getValue() && !t.equals(e.getValue()))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (a.isArray()) {
+                for (int i = 0; i < a.size(); i++) {
+                    if (a.get(i) != b.get(i) && !a.get(i).equals(b.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.UtilsException;
+import org.repetti.utils.exceptions.ParseException;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies RFC 6902 JSON Patch and RFC 7386 JSON Merge Patch documents in one pass over the target.
+ * <p/>
+ * Containers resolved for the previous operation are kept as a stack, the next operation only walks the part of its
+ * path that differs, so consecutive operations under the same parent resolve shared ancestors once.
+ * <p/>
+ * In atomic mode the target is not modified: containers on modified paths are copied on first write (shallow, the
+ * rest of the tree is shared with the original) and the new root is returned only if every operation succeeds.
+ * Otherwise the target is modified in place and operations applied before a failure stay applied.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonPatch {
+    public static final String FROM = "from";
+    public static final String OP_MOVE = "move";
+    public static final String OP_COPY = "copy";
+    public static final String OP_TEST = "test";
+
+    private final JsonNodeFactory factory = JsonNodeFactory.instance;
+    private final boolean copyOnWrite;
+    /**
+     * Containers created by this instance, may be modified in copy-on-write mode
+     */
+    private final Map<JsonNode, Boolean> owned;
+    /**
+     * Path of the last resolved parent and nodes along it, nodes.get(0) is the root
+     */
+    private final List<String> cachedPath = new ArrayList<String>();
+    private final List<JsonNode> cachedNodes = new ArrayList<JsonNode>();
+    private JsonNode root;
+
+    public JsonPatch(@NotNull JsonNode root, boolean copyOnWrite) {
+        this.root = root;
+        this.copyOnWrite = copyOnWrite;
+        this.owned = copyOnWrite ? new IdentityHashMap<JsonNode, Boolean>() : null;
+    }
+
+    /**
+     * Applies JSON Patch
+     *
+     * @param atomic when true target is not modified and the result is returned only if all operations succeed
+     * @return resulting root, differs from target if it was replaced or in atomic mode
+     * @throws UtilsException if patch is malformed or an operation fails
+     */
+    public static JsonNode apply(@NotNull JsonNode target, @NotNull JsonNode patch, boolean atomic) throws UtilsException {
+        return new JsonPatch(target, atomic).apply(patch).getRoot();
+    }
+
+    /**
+     * Applies the patch to the value of the reference and publishes the result with compare-and-set, retrying if
+     * the value was changed concurrently. Readers of the reference never see partially applied patch.
+     *
+     * @return published root
+     * @throws UtilsException if patch is malformed or an operation fails, reference is not changed then
+     */
+    public static JsonNode apply(@NotNull AtomicReference<JsonNode> reference, @NotNull JsonNode patch) throws UtilsException {
+        while (true) {
+            final JsonNode current = reference.get();
+            final JsonNode ret = apply(current, patch, true);
+            if (reference.compareAndSet(current, ret)) {
+                return ret;
+            }
+        }
+    }
+
+    /**
+     * Applies JSON Merge Patch: null values remove fields, objects are merged recursively, other values replace.
+     *
+     * @param atomic when true target is not modified, modified objects are copied
+     * @return resulting root
+     */
+    public static JsonNode merge(@NotNull JsonNode target, @NotNull JsonNode patch, boolean atomic) {
+        return new JsonPatch(target, atomic).merge(patch).getRoot();
+    }
+
+    /**
+     * Splits JSON Pointer (RFC 6901) into unescaped segments
+     *
+     * @throws ParseException if pointer is not empty and doesn't start with '/'
+     */
+    public static List<String> parsePointer(@NotNull String pointer) throws ParseException {
+        final List<String> ret = new ArrayList<String>();
+        if (pointer.isEmpty()) {
+            return ret;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new ParseException("pointer should start with '/': " + pointer);
+        }
+        int start = 1;
+        while (true) {
+            int end = pointer.indexOf('/', start);
+            String s = pointer.substring(start, end < 0 ? pointer.length() : end);
+            if (s.indexOf('~') >= 0) {
+                s = s.replace("~1", "/").replace("~0", "~");
+            }
+            ret.add(s);
+            if (end < 0) {
+                return ret;
+            }
+            start = end + 1;
+        }
+    }
+
+    @NotNull
+    public JsonNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Applies operations of the patch one by one
+     *
+     * @throws UtilsException on the first failed operation
+     */
+    public JsonPatch apply(@NotNull JsonNode patch) throws UtilsException {
+        if (!patch.isArray()) {
+            throw new ParseException("patch should be an array: " + patch);
+        }
+        int index = 0;
+        for (JsonNode op : patch) {
+            try {
+                applyOperation(op);
+            } catch (UtilsException e) {
+                throw new UtilsException(e.type, "operation " + index + " failed: " + e.getMessage(), e);
+            }
+            index++;
+        }
+        return this;
+    }
+
+    public JsonPatch merge(@NotNull JsonNode patch) {
+        setRoot(merge(root, patch));
+        return this;
+    }
+
+    private JsonNode merge(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return copyOnWrite ? patch : patch.deepCopy();
+        }
+        final ObjectNode ret = target != null && target.isObject() ? (ObjectNode) writable(target) : own(factory.objectNode());
+        Iterator<Map.Entry<String, JsonNode>> i = patch.fields();
+        while (i.hasNext()) {
+            final Map.Entry<String, JsonNode> e = i.next();
+            if (e.getValue().isNull()) {
+                ret.remove(e.getKey());
+            } else {
+                ret.set(e.getKey(), merge(ret.get(e.getKey()), e.getValue()));
+            }
+        }
+        return ret;
+    }
+
+    private void applyOperation(JsonNode op) throws UtilsException {
+        final String name = text(op, JsonDiff.OP);
+        final List<String> path = parsePointer(text(op, JsonDiff.PATH));
+        if (JsonDiff.OP_ADD.equals(name)) {
+            add(path, value(op));
+        } else if (JsonDiff.OP_REMOVE.equals(name)) {
+            remove(path);
+        } else if (JsonDiff.OP_REPLACE.equals(name)) {
+            remove(path);
+            add(path, value(op));
+        } else if (OP_MOVE.equals(name)) {
+            final List<String> from = parsePointer(text(op, FROM));
+            if (path.size() > from.size() && path.subList(0, from.size()).equals(from)) {
+                throw new UtilsException(UtilsException.Type.PARAMETERS, "cannot move into own child: " + op, null);
+            }
+            add(path, remove(from));
+        } else if (OP_COPY.equals(name)) {
+            add(path, get(parsePointer(text(op, FROM))).deepCopy());
+        } else if (OP_TEST.equals(name)) {
+            if (!get(path).equals(value(op))) {
+                throw new UtilsException(UtilsException.Type.PARAMETERS, "test failed: " + op, null);
+            }
+        } else {
+            throw new ParseException("unknown operation: " + op);
+        }
+    }
+
+    private static String text(JsonNode op, String field) throws ParseException {
+        final JsonNode ret = op.get(field);
+        if (ret == null || !ret.isTextual()) {
+            throw new ParseException("'" + field + "' should be a string: " + op);
+        }
+        return ret.textValue();
+    }
+
+    /**
+     * In place mode values are copied, so further operations don't change the patch document
+     */
+    private JsonNode value(JsonNode op) throws ParseException {
+        final JsonNode ret = op.get(JsonDiff.VALUE);
+        if (ret == null) {
+            throw new ParseException("'" + JsonDiff.VALUE + "' is missing: " + op);
+        }
+        return copyOnWrite ? ret : ret.deepCopy();
+    }
+
+    private void add(List<String> path, JsonNode value) throws UtilsException {
+        if (path.isEmpty()) {
+            setRoot(value);
+            return;
+        }
+        final JsonNode parent = parent(path);
+        final String last = path.get(path.size() - 1);
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(last, value);
+        } else if (parent.isArray()) {
+            final ArrayNode a = (ArrayNode) parent;
+            if ("-".equals(last)) {
+                a.add(value);
+            } else {
+                a.insert(index(last, a.size() + 1, path), value);
+            }
+        } else {
+            throw notFound(path);
+        }
+    }
+
+    /**
+     * @return removed value
+     */
+    private JsonNode remove(List<String> path) throws UtilsException {
+        if (path.isEmpty()) {
+            final JsonNode ret = root;
+            setRoot(factory.nullNode());
+            return ret;
+        }
+        final JsonNode parent = parent(path);
+        final String last = path.get(path.size() - 1);
+        final JsonNode ret;
+        if (parent.isObject()) {
+            ret = ((ObjectNode) parent).remove(last);
+        } else if (parent.isArray()) {
+            ret = ((ArrayNode) parent).remove(index(last, parent.size(), path));
+        } else {
+            ret = null;
+        }
+        if (ret == null) {
+            throw notFound(path);
+        }
+        return ret;
+    }
+
+    /**
+     * Read only lookup, nothing is copied
+     */
+    private JsonNode get(List<String> path) throws UtilsException {
+        JsonNode cur = root;
+        for (String s : path) {
+            cur = child(cur, s, path);
+        }
+        return cur;
+    }
+
+    private JsonNode child(JsonNode node, String segment, List<String> path) throws UtilsException {
+        final JsonNode ret;
+        if (node.isObject()) {
+            ret = node.get(segment);
+        } else if (node.isArray()) {
+            ret = node.get(index(segment, node.size(), path));
+        } else {
+            ret = null;
+        }
+        if (ret == null) {
+            throw notFound(path);
+        }
+        return ret;
+    }
+
+    /**
+     * Resolves container holding the last segment of the path, reusing ancestors resolved for the previous operation.
+     * In copy-on-write mode all containers on the way are made writable.
+     */
+    private JsonNode parent(List<String> path) throws UtilsException {
+        final int depth = path.size() - 1;
+        if (cachedNodes.isEmpty()) {
+            root = writable(root);
+            cachedNodes.add(root);
+        }
+        int common = 0;
+        final int max = Math.min(depth, cachedPath.size());
+        while (common < max && cachedPath.get(common).equals(path.get(common))) {
+            common++;
+        }
+        while (cachedPath.size() > common) {
+            cachedPath.remove(cachedPath.size() - 1);
+            cachedNodes.remove(cachedNodes.size() - 1);
+        }
+        JsonNode cur = cachedNodes.get(common);
+        for (int i = common; i < depth; i++) {
+            final String s = path.get(i);
+            JsonNode next = child(cur, s, path);
+            if (copyOnWrite && !owned.containsKey(next) && next.isContainerNode()) {
+                next = writable(next);
+                if (cur.isObject()) {
+                    ((ObjectNode) cur).set(s, next);
+                } else {
+                    ((ArrayNode) cur).set(index(s, cur.size(), path), next);
+                }
+            }
+            cachedPath.add(s);
+            cachedNodes.add(next);
+            cur = next;
+        }
+        return cur;
+    }
+
+    private void setRoot(JsonNode value) {
+        root = value;
+        cachedPath.clear();
+        cachedNodes.clear();
+    }
+
+    /**
+     * Returns the node itself in place mode or if it is already a copy, otherwise a shallow copy
+     */
+    private JsonNode writable(JsonNode node) {
+        if (!copyOnWrite || owned.containsKey(node)) {
+            return node;
+        }
+        if (node.isObject()) {
+            final ObjectNode ret = factory.objectNode();
+            ret.setAll((ObjectNode) node);
+            return own(ret);
+        }
+        if (node.isArray()) {
+            final ArrayNode ret = factory.arrayNode();
+            ret.addAll((ArrayNode) node);
+            return own(ret);
+        }
+        return node;
+    }
+
+    private <T extends JsonNode> T own(T node) {
+        if (copyOnWrite) {
+            owned.put(node, Boolean.TRUE);
+        }
+        return node;
+    }
+
+    /**
+     * @param size exclusive upper bound of the index
+     */
+    private static int index(String segment, int size, List<String> path) throws UtilsException {
+        final int length = segment.length();
+        if (length == 0 || length > 9 || (length > 1 && segment.charAt(0) == '0')) {
+            throw notFound(path);
+        }
+        int ret = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                throw notFound(path);
+            }
+            ret = ret * 10 + (c - '0');
+        }
+        if (ret >= size) {
+            throw notFound(path);
+        }
+        return ret;
+    }
+
+    private static UtilsException notFound(List<String> path) {
+        return new UtilsException(UtilsException.Type.NOT_FOUND, "path doesn't exist: " + path, null);
+    }
+}
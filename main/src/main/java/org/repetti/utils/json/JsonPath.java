@@ -0,0 +1,211 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.repetti.utils.UtilsException;
+import org.repetti.utils.exceptions.ParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precompiled path to a value inside JSON tree. Compile once, evaluate against many documents.
+ * <p/>
+ * Supported syntax:
+ * <ul>
+ * <li>dotted: {@code a.b[3].c}</li>
+ * <li>JSON Pointer (RFC 6901): {@code /a/b/3/c}, numeric segments address array elements or object fields</li>
+ * </ul>
+ * Evaluation does one lookup per segment and allocates nothing unless the path is missing and an exception is
+ * thrown. Instances are immutable and thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonPath {
+    private final String expression;
+    /**
+     * Field names, null for dotted array indexes
+     */
+    private final String[] names;
+    /**
+     * Array indexes, -1 if segment is not numeric
+     */
+    private final int[] indexes;
+
+    private JsonPath(String expression, String[] names, int[] indexes) {
+        this.expression = expression;
+        this.names = names;
+        this.indexes = indexes;
+    }
+
+    /**
+     * @throws ParseException if the expression is malformed
+     */
+    public static JsonPath compile(@NotNull String expression) throws ParseException {
+        final List<String> names = new ArrayList<String>();
+        final List<Integer> indexes = new ArrayList<Integer>();
+        if (expression.startsWith("/") || expression.isEmpty()) {
+            for (String s : JsonPatch.parsePointer(expression)) {
+                names.add(s);
+                indexes.add(parseIndex(s));
+            }
+        } else {
+            for (String s : splitDotted(expression)) {
+                if (s.charAt(0) == '[') {
+                    final int index = parseIndex(s.substring(1, s.length() - 1));
+                    if (index < 0) {
+                        throw new ParseException("bad index in '" + expression + "': " + s);
+                    }
+                    names.add(null);
+                    indexes.add(index);
+                } else {
+                    names.add(s);
+                    indexes.add(-1);
+                }
+            }
+        }
+        final int[] idx = new int[indexes.size()];
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = indexes.get(i);
+        }
+        return new JsonPath(expression, names.toArray(new String[names.size()]), idx);
+    }
+
+    private static List<String> splitDotted(String expression) throws ParseException {
+        final List<String> ret = new ArrayList<String>();
+        final int length = expression.length();
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            final char c = i < length ? expression.charAt(i) : '.';
+            if (c == '.' || c == '[') {
+                if (i > start) {
+                    ret.add(expression.substring(start, i));
+                } else if (c == '.' && (i == 0 || expression.charAt(i - 1) != ']')) {
+                    throw new ParseException("empty segment in '" + expression + "' at " + i);
+                }
+                if (c == '[') {
+                    final int end = expression.indexOf(']', i);
+                    if (end < 0) {
+                        throw new ParseException("unclosed '[' in '" + expression + "'");
+                    }
+                    ret.add(expression.substring(i, end + 1));
+                    i = end;
+                }
+                start = i + 1;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return index or -1 if the segment is not a valid array index
+     */
+    private static int parseIndex(String s) {
+        final int length = s.length();
+        if (length == 0 || length > 9 || (length > 1 && s.charAt(0) == '0')) {
+            return -1;
+        }
+        int ret = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            ret = ret * 10 + (c - '0');
+        }
+        return ret;
+    }
+
+    /**
+     * @return node found or null if any segment is missing
+     */
+    @Nullable
+    public JsonNode find(@Nullable JsonNode root) {
+        JsonNode cur = root;
+        for (int i = 0; i < names.length && cur != null; i++) {
+            if (cur.isArray()) {
+                cur = indexes[i] < 0 ? null : cur.get(indexes[i]);
+            } else {
+                cur = names[i] == null ? null : cur.get(names[i]);
+            }
+        }
+        return cur;
+    }
+
+    /**
+     * @throws UtilsException if any segment is missing
+     */
+    @NotNull
+    public JsonNode get(@Nullable JsonNode root) throws UtilsException {
+        final JsonNode ret = find(root);
+        if (ret == null) {
+            throw new UtilsException(UtilsException.Type.PARAMETERS, expression + " not found", null);
+        }
+        return ret;
+    }
+
+    public JsonNode getJson(@Nullable JsonNode root, JsonNode defaultValue) {
+        final JsonNode ret = find(root);
+        return ret == null ? defaultValue : ret;
+    }
+
+    public String getString(@Nullable JsonNode root) throws ParseException, UtilsException {
+        final JsonNode ret = get(root);
+        if (ret.isTextual()) {
+            return ret.textValue();
+        }
+        throw new ParseException(expression + " is not textual");
+    }
+
+    public String getString(@Nullable JsonNode root, String defaultValue) {
+        final JsonNode ret = find(root);
+        return ret != null && ret.isTextual() ? ret.textValue() : defaultValue;
+    }
+
+    public int getInteger(@Nullable JsonNode root) throws ParseException, UtilsException {
+        final JsonNode ret = get(root);
+        if (ret.isInt()) {
+            return ret.intValue();
+        }
+        throw new ParseException(expression + " is not an integer");
+    }
+
+    public int getInteger(@Nullable JsonNode root, int defaultValue) {
+        final JsonNode ret = find(root);
+        return ret != null && ret.isInt() ? ret.intValue() : defaultValue;
+    }
+
+    public long getLong(@Nullable JsonNode root, long defaultValue) {
+        final JsonNode ret = find(root);
+        return ret != null && ret.isIntegralNumber() && ret.canConvertToLong() ? ret.longValue() : defaultValue;
+    }
+
+    public boolean getBoolean(@Nullable JsonNode root, boolean defaultValue) {
+        final JsonNode ret = find(root);
+        return ret != null && ret.isBoolean() ? ret.booleanValue() : defaultValue;
+    }
+
+    public ObjectNode getObject(@Nullable JsonNode root) throws ParseException, UtilsException {
+        final JsonNode ret = get(root);
+        if (ret.isObject()) {
+            return (ObjectNode) ret;
+        }
+        throw new ParseException(expression + " is not an object node");
+    }
+
+    /**
+     * @return number of segments
+     */
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
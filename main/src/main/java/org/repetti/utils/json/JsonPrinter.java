@@ -0,0 +1,189 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.JsonHelper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes formatted JSON directly to an {@link Appendable}, so the result is never collected into one String.
+ * <p/>
+ * Layout is the one used by {@link JsonHelper#printFormatted(JsonNode)}: one element per line, {@code tabSize}
+ * spaces per nesting level, empty containers printed as {@code []} and <code>{}</code>.
+ * <p/>
+ * Sorted output reuses scratch arrays of the printer, so reuse an instance to print many documents.
+ * Instances are not thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonPrinter {
+    /**
+     * Indentation is appended in runs of this length instead of char by char
+     */
+    private static final char[] SPACES = new char[128];
+
+    static {
+        for (int i = 0; i < SPACES.length; i++) {
+            SPACES[i] = ' ';
+        }
+    }
+
+    private final Appendable out;
+    private final int tabSize;
+    private final boolean sorted;
+    private final JsonEscaper escaper = new JsonEscaper();
+    /**
+     * Reusable arrays for sorting fields, one per nesting level of objects
+     */
+    private NodeField[][] scratch;
+    private int depth = 0;
+
+    /**
+     * @param out     destination, {@link StringBuilder} and {@link Writer} are written without intermediate copies
+     * @param tabSize number of spaces per nesting level
+     * @param sorted  when true object fields are printed in natural order of their names
+     */
+    public JsonPrinter(@NotNull Appendable out, int tabSize, boolean sorted) {
+        this.out = out;
+        this.tabSize = tabSize;
+        this.sorted = sorted;
+        this.scratch = sorted ? new NodeField[8][] : null;
+    }
+
+    /**
+     * Appends {@code count} spaces to the output
+     */
+    public static void indent(@NotNull Appendable out, int count) throws IOException {
+        while (count > 0) {
+            final int len = count < SPACES.length ? count : SPACES.length;
+            if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(SPACES, 0, len);
+            } else if (out instanceof Writer) {
+                ((Writer) out).write(SPACES, 0, len);
+            } else {
+                for (int i = 0; i < len; i++) {
+                    out.append(' ');
+                }
+            }
+            count -= len;
+        }
+    }
+
+    /**
+     * @param j      node to print
+     * @param spaces indentation of the current level, first line is not indented
+     */
+    public void print(@NotNull JsonNode j, int spaces) throws IOException {
+        if (j.isArray()) {
+            out.append('[');
+            boolean notEmpty = false;
+            for (JsonNode t : j) {
+                openLine(notEmpty, spaces + tabSize);
+                notEmpty = true;
+                print(t, spaces + tabSize);
+            }
+            closeLine(notEmpty, spaces);
+            out.append(']');
+        } else if (j.isObject()) {
+            out.append('{');
+            boolean notEmpty = false;
+            if (sorted) {
+                final NodeField[] fields = scratch(depth, j.size());
+                final int size = collect(j, fields);
+                Sorting.sort(fields, 0, size, Sorting.BY_KEY);
+                depth++;
+                try {
+                    for (int k = 0; k < size; k++) {
+                        openLine(notEmpty, spaces + tabSize);
+                        notEmpty = true;
+                        printField(fields[k].key, fields[k].value, spaces + tabSize);
+                    }
+                } finally {
+                    depth--;
+                    for (int k = 0; k < size; k++) {
+                        fields[k].key = null;
+                        fields[k].value = null;
+                    }
+                }
+            } else {
+                Iterator<Map.Entry<String, JsonNode>> i = j.fields();
+                while (i.hasNext()) {
+                    Map.Entry<String, JsonNode> cur = i.next();
+                    openLine(notEmpty, spaces + tabSize);
+                    notEmpty = true;
+                    printField(cur.getKey(), cur.getValue(), spaces + tabSize);
+                }
+            }
+            closeLine(notEmpty, spaces);
+            out.append('}');
+        } else if (j.isTextual()) {
+            JsonEscaper.appendQuoted(out, j.textValue());
+        } else {
+            out.append(j.toString());
+        }
+    }
+
+    /**
+     * Returns scratch array of the nesting level, big enough to hold {@code size} entries
+     */
+    private NodeField[] scratch(int level, int size) {
+        if (level >= scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(level + 1, scratch.length * 2));
+        }
+        NodeField[] ret = scratch[level];
+        if (ret == null || ret.length < size) {
+            final int filled = ret == null ? 0 : ret.length;
+            ret = ret == null ? new NodeField[Math.max(size, 16)] : Arrays.copyOf(ret, Math.max(size, ret.length * 2));
+            for (int i = filled; i < ret.length; i++) {
+                ret[i] = new NodeField();
+            }
+            scratch[level] = ret;
+        }
+        return ret;
+    }
+
+    private static int collect(JsonNode j, NodeField[] fields) {
+        int size = 0;
+        Iterator<Map.Entry<String, JsonNode>> i = j.fields();
+        while (i.hasNext()) {
+            final Map.Entry<String, JsonNode> e = i.next();
+            final NodeField f = fields[size++];
+            f.key = e.getKey();
+            f.value = e.getValue();
+        }
+        return size;
+    }
+
+    private void printField(String name, JsonNode value, int spaces) throws IOException {
+        escaper.appendKey(out, name);
+        out.append(": ");
+        print(value, spaces);
+    }
+
+    private void openLine(boolean notFirst, int spaces) throws IOException {
+        if (notFirst) {
+            out.append(",\n");
+        } else {
+            out.append('\n');
+        }
+        indent(out, spaces);
+    }
+
+    private void closeLine(boolean notEmpty, int spaces) throws IOException {
+        if (notEmpty) {
+            out.append('\n');
+            indent(out, spaces);
+        }
+    }
+
+    private static class NodeField extends Sorting.Field {
+        JsonNode value;
+    }
+}
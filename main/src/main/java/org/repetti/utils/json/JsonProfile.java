@@ -0,0 +1,155 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.UtilsException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Named, immutable set of parsing and serialization settings with prebuilt {@link ObjectReader} and
+ * {@link ObjectWriter}, so different callers can use different settings without touching a shared mapper.
+ * <p/>
+ * A profile takes a snapshot of the base mapper configuration when created, later changes of the mapper don't
+ * affect it. {@code with*} methods return new profiles and leave this one unchanged, parser and generator features
+ * are applied to a private copy of the factory. Build profiles once and keep them, instances are thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonProfile {
+    private final String name;
+    private final JsonFactory factory;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    public JsonProfile(@NotNull String name, @NotNull ObjectMapper base) {
+        this(name, copy(base.getFactory()), base);
+    }
+
+    private JsonProfile(String name, JsonFactory factory, ObjectMapper base) {
+        this(name, factory, base.reader(JsonNode.class).with(factory), base.writer().with(factory));
+    }
+
+    private JsonProfile(String name, JsonFactory factory, ObjectReader reader, ObjectWriter writer) {
+        this.name = name;
+        this.factory = factory;
+        this.reader = reader;
+        this.writer = writer;
+    }
+
+    public JsonProfile with(@NotNull JsonParser.Feature feature, boolean state) {
+        final JsonFactory f = copy(factory).configure(feature, state);
+        return new JsonProfile(name, f, reader.with(f), writer.with(f));
+    }
+
+    public JsonProfile with(@NotNull JsonGenerator.Feature feature, boolean state) {
+        final JsonFactory f = copy(factory).configure(feature, state);
+        return new JsonProfile(name, f, reader.with(f), writer.with(f));
+    }
+
+    public JsonProfile with(@NotNull DeserializationFeature feature, boolean state) {
+        return new JsonProfile(name, factory, state ? reader.with(feature) : reader.without(feature), writer);
+    }
+
+    public JsonProfile with(@NotNull SerializationFeature feature, boolean state) {
+        return new JsonProfile(name, factory, reader, state ? writer.with(feature) : writer.without(feature));
+    }
+
+    /**
+     * Copy of the factory with the same features, copy() of the mapping factory resets them in this Jackson version
+     */
+    private static JsonFactory copy(JsonFactory src) {
+        final JsonFactory ret = src.copy();
+        for (JsonFactory.Feature f : JsonFactory.Feature.values()) {
+            ret.configure(f, src.isEnabled(f));
+        }
+        for (JsonParser.Feature f : JsonParser.Feature.values()) {
+            ret.configure(f, src.isEnabled(f));
+        }
+        for (JsonGenerator.Feature f : JsonGenerator.Feature.values()) {
+            ret.configure(f, src.isEnabled(f));
+        }
+        return ret;
+    }
+
+    /**
+     * @return profile with the same settings and another name
+     */
+    public JsonProfile named(@NotNull String name) {
+        return new JsonProfile(name, factory, reader, writer);
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return reader producing {@link JsonNode}, use {@link ObjectReader#withType(Class)} for other types
+     */
+    @NotNull
+    public ObjectReader getReader() {
+        return reader;
+    }
+
+    @NotNull
+    public ObjectWriter getWriter() {
+        return writer;
+    }
+
+    public JsonNode parse(@NotNull String text) throws UtilsException {
+        try {
+            return reader.readValue(text);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "[" + name + "] error parsing text: " + text, e);
+        }
+    }
+
+    public JsonNode parse(@NotNull byte[] data) throws UtilsException {
+        try {
+            return reader.readValue(data);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "[" + name + "] error parsing " + data.length + " bytes", e);
+        }
+    }
+
+    public JsonNode parse(@NotNull InputStream inputStream) throws UtilsException {
+        try {
+            return reader.readValue(inputStream);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "[" + name + "] error reading IO stream: " + inputStream, e);
+        }
+    }
+
+    public String serialize(Object value) throws UtilsException {
+        try {
+            return writer.writeValueAsString(value);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "[" + name + "] error serializing " + value, e);
+        }
+    }
+
+    public byte[] serializeBytes(Object value) throws UtilsException {
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "[" + name + "] error serializing " + value, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,136 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.PrettyPrinter;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.JsonHelper;
+
+import java.io.IOException;
+
+/**
+ * Reformats JSON token by token, no tree is built, so memory usage doesn't depend on the size of the input.
+ * <p/>
+ * Layout is the same as produced by {@link JsonPrinter} ({@link JsonHelper#printFormatted(com.fasterxml.jackson.databind.JsonNode)}).
+ * Input may contain several root values (e.g. NDJSON), each of them is printed starting from a new line.
+ * Unlike the tree based printer duplicate field names are kept as is.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class JsonStreamFormatter {
+
+    /**
+     * Copies all tokens from parser to generator using the layout of {@link JsonPrinter}.
+     * Neither parser nor generator is closed, generator is flushed.
+     *
+     * @param parser    source of tokens, may be already positioned inside the document
+     * @param generator destination, its pretty printer will be replaced
+     * @param tabSize   number of spaces per nesting level
+     * @return number of tokens copied
+     */
+    public static long format(@NotNull JsonParser parser, @NotNull JsonGenerator generator, int tabSize) throws IOException {
+        generator.setPrettyPrinter(new IndentPrettyPrinter(tabSize));
+        long count = 0;
+        while (parser.nextToken() != null) {
+            generator.copyCurrentEvent(parser);
+            count++;
+        }
+        generator.flush();
+        return count;
+    }
+
+    /**
+     * Reproduces {@link JsonPrinter} layout for the generator: new line per element, fixed indentation.
+     * Holds the current nesting level, so an instance should not be shared between generators.
+     */
+    public static class IndentPrettyPrinter implements PrettyPrinter {
+        private static final char[] SPACES = new char[128];
+
+        static {
+            for (int i = 0; i < SPACES.length; i++) {
+                SPACES[i] = ' ';
+            }
+        }
+
+        private final int tabSize;
+        private int level = 0;
+
+        public IndentPrettyPrinter(int tabSize) {
+            this.tabSize = tabSize;
+        }
+
+        private void newLine(JsonGenerator jg) throws IOException {
+            jg.writeRaw('\n');
+            int count = level * tabSize;
+            while (count > 0) {
+                final int len = count < SPACES.length ? count : SPACES.length;
+                jg.writeRaw(SPACES, 0, len);
+                count -= len;
+            }
+        }
+
+        @Override
+        public void writeRootValueSeparator(JsonGenerator jg) throws IOException {
+            jg.writeRaw('\n');
+        }
+
+        @Override
+        public void writeStartObject(JsonGenerator jg) throws IOException {
+            jg.writeRaw('{');
+            level++;
+        }
+
+        @Override
+        public void writeEndObject(JsonGenerator jg, int nrOfEntries) throws IOException {
+            level--;
+            if (nrOfEntries > 0) {
+                newLine(jg);
+            }
+            jg.writeRaw('}');
+        }
+
+        @Override
+        public void writeObjectEntrySeparator(JsonGenerator jg) throws IOException {
+            jg.writeRaw(',');
+            newLine(jg);
+        }
+
+        @Override
+        public void writeObjectFieldValueSeparator(JsonGenerator jg) throws IOException {
+            jg.writeRaw(": ");
+        }
+
+        @Override
+        public void writeStartArray(JsonGenerator jg) throws IOException {
+            jg.writeRaw('[');
+            level++;
+        }
+
+        @Override
+        public void writeEndArray(JsonGenerator jg, int nrOfValues) throws IOException {
+            level--;
+            if (nrOfValues > 0) {
+                newLine(jg);
+            }
+            jg.writeRaw(']');
+        }
+
+        @Override
+        public void writeArrayValueSeparator(JsonGenerator jg) throws IOException {
+            jg.writeRaw(',');
+            newLine(jg);
+        }
+
+        @Override
+        public void beforeArrayValues(JsonGenerator jg) throws IOException {
+            newLine(jg);
+        }
+
+        @Override
+        public void beforeObjectEntries(JsonGenerator jg) throws IOException {
+            newLine(jg);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.repetti.utils.UtilsException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Reads newline-delimited JSON (NDJSON, JSON Lines): one value per line, blank lines are skipped. Several values on
+ * one line or a value spread over lines are rejected, errors report the line number.
+ * <p/>
+ * A single parser with its input buffer is kept for the whole stream, so reading a record costs only building its
+ * tree. Instances are not thread safe. {@link #read(ObjectMapper, InputStream, NodeConsumer, ExecutorService, int)}
+ * splits the stream into batches of whole lines and parses them on a pool, delivering records in stream order.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class NdJsonReader implements Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 1024 * 1024;
+
+    private final ObjectMapper mapper;
+    private final JsonParser parser;
+    private long count = 0;
+    /**
+     * Line of the last record, 0 before the first one
+     */
+    private int line = 0;
+
+    public NdJsonReader(@NotNull ObjectMapper mapper, @NotNull InputStream in) throws UtilsException {
+        this.mapper = mapper;
+        try {
+            this.parser = mapper.getFactory().createParser(in);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading IO stream: " + in, e);
+        }
+    }
+
+    /**
+     * @return next record or null if the stream is over
+     * @throws UtilsException if the stream cannot be read or the record is malformed
+     */
+    @Nullable
+    public JsonNode next() throws UtilsException {
+        int start = 0;
+        try {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            start = parser.getTokenLocation().getLineNr();
+            final JsonNode ret = readLine(mapper, parser, line);
+            line = parser.getTokenLocation().getLineNr();
+            count++;
+            return ret;
+        } catch (JsonProcessingException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "error parsing line " + errorLine(parser, start), e);
+        } catch (UtilsException e) {
+            throw new UtilsException(e.type, "error parsing line " + start + ": " + e.getMessage(), null);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading line " + errorLine(parser, start), e);
+        }
+    }
+
+    /**
+     * Reads the value starting at the current token, it has to be the only one on its line
+     *
+     * @param previous line of the previous value
+     * @throws UtilsException if the value shares the line or spans lines, the message doesn't mention the line
+     */
+    private static JsonNode readLine(ObjectMapper mapper, JsonParser parser, int previous) throws IOException, UtilsException {
+        final int line = parser.getTokenLocation().getLineNr();
+        if (line <= previous) {
+            throw new UtilsException(UtilsException.Type.PARSING, "more than one value on the line", null);
+        }
+        final JsonNode ret = mapper.readTree(parser);
+        if (parser.getTokenLocation().getLineNr() != line) {
+            throw new UtilsException(UtilsException.Type.PARSING, "value continues on the next line", null);
+        }
+        return ret;
+    }
+
+    /**
+     * @param start line of the record being read, 0 if its first token was not read
+     */
+    private static int errorLine(JsonParser parser, int start) {
+        return start > 0 ? start : parser.getCurrentLocation().getLineNr();
+    }
+
+    /**
+     * Passes all remaining records to the consumer
+     *
+     * @return number of records read
+     */
+    public long forEach(@NotNull NodeConsumer consumer) throws UtilsException {
+        final long start = count;
+        JsonNode j;
+        while ((j = next()) != null) {
+            consumer.accept(j);
+        }
+        return count - start;
+    }
+
+    /**
+     * @return number of records read so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    /**
+     * Same as {@link #read(ObjectMapper, InputStream, NodeConsumer, ExecutorService, int, int)} with twice as many
+     * batches in flight as the pool has threads ({@link ForkJoinPool} and {@link ThreadPoolExecutor}, the number of
+     * processors for other executors and for pools growing without limit)
+     */
+    public static long read(@NotNull ObjectMapper mapper, @NotNull InputStream in, @NotNull NodeConsumer consumer,
+                            @NotNull ExecutorService pool, int batchSize) throws UtilsException {
+        return read(mapper, in, consumer, pool, batchSize, threads(pool) * 2);
+    }
+
+    private static int threads(ExecutorService pool) {
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        if (pool instanceof ForkJoinPool) {
+            return ((ForkJoinPool) pool).getParallelism();
+        }
+        if (pool instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor t = (ThreadPoolExecutor) pool;
+            return Math.max(1, Math.max(t.getCorePoolSize(), Math.min(t.getMaximumPoolSize(), cpus)));
+        }
+        return cpus;
+    }
+
+    /**
+     * Reads the stream in batches of about {@code batchSize} bytes cut at line ends, batches are parsed on the pool.
+     * Records are passed to the consumer from the calling thread in stream order. The stream is not closed.
+     *
+     * @param maxInFlight number of batches submitted to the pool and not yet delivered, bounds the memory used
+     * @return number of records
+     * @throws UtilsException if the stream cannot be read or a record is malformed
+     */
+    public static long read(@NotNull final ObjectMapper mapper, @NotNull InputStream in, @NotNull NodeConsumer consumer,
+                            @NotNull ExecutorService pool, int batchSize, int maxInFlight) throws UtilsException {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight " + maxInFlight);
+        }
+        final ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<Future<Batch>>();
+        final long[] delivered = new long[2];
+        byte[] buffer = new byte[batchSize];
+        int filled = 0;
+        try {
+            while (true) {
+                final int r = in.read(buffer, filled, buffer.length - filled);
+                if (r > 0) {
+                    filled += r;
+                    if (filled < buffer.length) {
+                        continue;
+                    }
+                }
+                int cut = filled;
+                if (r >= 0) {
+                    while (cut > 0 && buffer[cut - 1] != '\n') {
+                        cut--;
+                    }
+                    if (cut == 0) {
+                        // a line longer than the buffer
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        continue;
+                    }
+                }
+                final byte[] batch = buffer;
+                if (cut > 0) {
+                    final int length = cut;
+                    inFlight.add(pool.submit(new Callable<Batch>() {
+                        @Override
+                        public Batch call() throws Exception {
+                            return parseBatch(mapper, batch, length);
+                        }
+                    }));
+                    if (inFlight.size() >= maxInFlight) {
+                        deliver(inFlight.poll(), consumer, delivered);
+                    }
+                }
+                if (r < 0) {
+                    break;
+                }
+                buffer = new byte[Math.max(batchSize, buffer.length)];
+                filled -= cut;
+                System.arraycopy(batch, cut, buffer, 0, filled);
+            }
+            while (!inFlight.isEmpty()) {
+                deliver(inFlight.poll(), consumer, delivered);
+            }
+            return delivered[0];
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading IO stream: " + in, e);
+        } finally {
+            for (Future<Batch> f : inFlight) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Parses whole lines, failures are kept in the result: only the delivering thread knows the lines before
+     */
+    private static Batch parseBatch(ObjectMapper mapper, byte[] data, int length) throws IOException {
+        final Batch ret = new Batch();
+        for (int i = 0; i < length; i++) {
+            if (data[i] == '\n') {
+                ret.lines++;
+            }
+        }
+        final JsonParser parser = mapper.getFactory().createParser(data, 0, length);
+        int line = 0;
+        int start = 0;
+        try {
+            while (parser.nextToken() != null) {
+                start = parser.getTokenLocation().getLineNr();
+                ret.nodes.add(readLine(mapper, parser, line));
+                line = parser.getTokenLocation().getLineNr();
+                start = 0;
+            }
+        } catch (JsonProcessingException e) {
+            ret.error = e;
+            ret.errorLine = errorLine(parser, start);
+        } catch (UtilsException e) {
+            ret.error = e;
+            ret.errorLine = start;
+        } finally {
+            parser.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Passes records of the batch to the consumer
+     *
+     * @param delivered number of records and of lines delivered so far, updated
+     */
+    private static void deliver(Future<Batch> future, NodeConsumer consumer, long[] delivered) throws UtilsException {
+        final Batch batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UtilsException(UtilsException.Type.UNDEFINED, "interrupted", e);
+        } catch (ExecutionException e) {
+            throw new UtilsException(UtilsException.Type.PARSING, "error parsing batch: " + e.getCause(), e.getCause());
+        }
+        if (batch.error != null) {
+            throw new UtilsException(UtilsException.Type.PARSING, "error parsing line " + (delivered[1] + batch.errorLine)
+                    + ": " + batch.error.getMessage(), batch.error);
+        }
+        for (JsonNode j : batch.nodes) {
+            consumer.accept(j);
+        }
+        delivered[0] += batch.nodes.size();
+        delivered[1] += batch.lines;
+    }
+
+    private static class Batch {
+        private final List<JsonNode> nodes = new ArrayList<JsonNode>();
+        private int lines = 0;
+        /**
+         * Failure of a record, records before it are not delivered
+         */
+        private Exception error;
+        private int errorLine;
+    }
+}
@@ -0,0 +1,112 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.UtilsException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes newline-delimited JSON (NDJSON, JSON Lines), every record is followed by a line feed.
+ * <p/>
+ * Records are serialized by a single generator into a reusable byte buffer, the buffer is written to the target
+ * stream when it grows over {@code batchSize} bytes, so the target sees few large writes. Call {@link #flush()} to
+ * push buffered records out, {@link #close()} flushes and closes the target. Instances are not thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class NdJsonWriter implements Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 1024 * 1024;
+
+    private final ObjectMapper mapper;
+    private final OutputStream out;
+    private final int batchSize;
+    private final ByteArrayOutputStream buffer;
+    private final JsonGenerator generator;
+    private long count = 0;
+
+    public NdJsonWriter(@NotNull ObjectMapper mapper, @NotNull OutputStream out, int batchSize) throws UtilsException {
+        this.mapper = mapper;
+        this.out = out;
+        this.batchSize = batchSize;
+        this.buffer = new ByteArrayOutputStream(batchSize + batchSize / 4);
+        try {
+            this.generator = mapper.getFactory().createGenerator(buffer, JsonEncoding.UTF8);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error creating generator", e);
+        }
+        // records are separated by line feeds written after each of them
+        generator.setRootValueSeparator(null);
+    }
+
+    public void write(@NotNull JsonNode node) throws UtilsException {
+        try {
+            mapper.writeTree(generator, node);
+            endRecord();
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error writing record " + count, e);
+        }
+    }
+
+    /**
+     * Serializes any object the mapper can handle as a single record
+     */
+    public void writeValue(@NotNull Object value) throws UtilsException {
+        try {
+            mapper.writeValue(generator, value);
+            endRecord();
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error writing record " + count, e);
+        }
+    }
+
+    private void endRecord() throws IOException {
+        generator.writeRaw('\n');
+        generator.flush();
+        count++;
+        if (buffer.size() >= batchSize) {
+            buffer.writeTo(out);
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Writes buffered records and flushes the target stream
+     */
+    public void flush() throws UtilsException {
+        try {
+            generator.flush();
+            buffer.writeTo(out);
+            buffer.reset();
+            out.flush();
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error flushing records", e);
+        }
+    }
+
+    /**
+     * @return number of records written so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            generator.close();
+            buffer.writeTo(out);
+            buffer.reset();
+        } finally {
+            out.close();
+        }
+    }
+}
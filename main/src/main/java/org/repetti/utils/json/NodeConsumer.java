@@ -0,0 +1,17 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Receives parsed JSON values one by one.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public interface NodeConsumer {
+    /**
+     * @param node parsed value, not null
+     */
+    void accept(JsonNode node);
+}
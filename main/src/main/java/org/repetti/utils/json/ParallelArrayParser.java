@@ -0,0 +1,318 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.UtilsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses elements of a big top-level JSON array in parallel.
+ * <p/>
+ * The file is memory-mapped and scanned once for structure only (strings, escapes and nesting depth), top-level
+ * commas split it into chunks of about {@code chunkSize} bytes. Chunks are parsed as separate arrays on a
+ * {@link ForkJoinPool}, at most two chunks per worker are in flight, so memory usage doesn't depend on the file size.
+ * <p/>
+ * With ordered delivery elements are passed to the consumer from the calling thread in file order. With unordered
+ * delivery the consumer is called from worker threads as soon as elements are parsed and has to be thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class ParallelArrayParser {
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final Logger log = LoggerFactory.getLogger(ParallelArrayParser.class);
+    /**
+     * Size of the window mapped at once by the structural scan
+     */
+    private static final long SCAN_WINDOW = 256 * 1024 * 1024;
+
+    private final ObjectMapper mapper;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelArrayParser(@NotNull ObjectMapper mapper, @NotNull ForkJoinPool pool, int chunkSize) {
+        this.mapper = mapper;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parses using a temporary pool with a worker per available processor
+     *
+     * @return number of elements
+     */
+    public static long parse(@NotNull ObjectMapper mapper, @NotNull Path path, @NotNull NodeConsumer consumer,
+                             boolean ordered) throws UtilsException {
+        final ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return new ParallelArrayParser(mapper, pool, DEFAULT_CHUNK_SIZE).parse(path, consumer, ordered);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @param ordered if true consumer is called from the current thread in order of elements in the file
+     * @return number of elements
+     * @throws UtilsException if the file cannot be read, is not an array or contains malformed elements
+     */
+    public long parse(@NotNull Path path, @NotNull final NodeConsumer consumer, final boolean ordered) throws UtilsException {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading file: " + path, e);
+        }
+        final ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+        final int maxInFlight = pool.getParallelism() * 2;
+        long count = 0;
+        try {
+            final Scanner scanner = new Scanner(channel);
+            long[] chunk;
+            while ((chunk = scanner.nextChunk()) != null) {
+                final long start = chunk[0];
+                final long end = chunk[1];
+                inFlight.add(pool.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() throws Exception {
+                        return parseChunk(channel, start, end, ordered ? null : consumer);
+                    }
+                }));
+                if (inFlight.size() >= maxInFlight) {
+                    count += deliver(inFlight.poll(), consumer);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                count += deliver(inFlight.poll(), consumer);
+            }
+            return count;
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading file: " + path, e);
+        } finally {
+            for (Future<Chunk> f : inFlight) {
+                f.cancel(true);
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Exception while closing file {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Waits for the chunk and passes its elements to the consumer if they were not delivered by the worker
+     *
+     * @return number of elements in the chunk
+     */
+    private static long deliver(Future<Chunk> future, NodeConsumer consumer) throws UtilsException {
+        final Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UtilsException(UtilsException.Type.UNDEFINED, "interrupted", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UtilsException) {
+                throw (UtilsException) cause;
+            }
+            throw new UtilsException(UtilsException.Type.PARSING, "error parsing chunk: " + cause, cause);
+        }
+        if (chunk.nodes != null) {
+            for (JsonNode j : chunk.nodes) {
+                consumer.accept(j);
+            }
+        }
+        return chunk.count;
+    }
+
+    /**
+     * Parses bytes [start, end) of the file as the contents of an array
+     *
+     * @param consumer if not null elements are passed to it and only their count is returned
+     */
+    private Chunk parseChunk(FileChannel channel, long start, long end, NodeConsumer consumer) throws IOException, UtilsException {
+        final int length = (int) (end - start);
+        final byte[] data = new byte[length + 2];
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        data[0] = '[';
+        buffer.get(data, 1, length);
+        data[length + 1] = ']';
+
+        final Chunk ret = new Chunk(consumer == null ? new ArrayList<JsonNode>() : null);
+        final JsonParser parser = mapper.getFactory().createParser(data);
+        try {
+            parser.nextToken();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                final JsonNode node = mapper.readTree(parser);
+                if (consumer == null) {
+                    ret.nodes.add(node);
+                } else {
+                    consumer.accept(node);
+                }
+                ret.count++;
+            }
+            if (parser.nextToken() != null) {
+                throw new UtilsException(UtilsException.Type.PARSING, "unexpected content at " + start, null);
+            }
+        } finally {
+            parser.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Result of a parsed chunk, nodes are null if they were delivered by the worker
+     */
+    private static class Chunk {
+        private final List<JsonNode> nodes;
+        private long count = 0;
+
+        private Chunk(List<JsonNode> nodes) {
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * Structural scan of the file, finds top-level commas and splits the contents of the array into chunks.
+     * <p/>
+     * Brackets are matched here, chunks are parsed as arrays of their own and would not notice a closing bracket of
+     * the wrong kind at the top level. Only whitespace may follow the array.
+     */
+    private class Scanner {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+        /**
+         * Position of the next byte to scan
+         */
+        private long position = 0;
+        private long chunkStart = -1;
+        /**
+         * Opening brackets of the current nesting, the top-level '[' included
+         */
+        private byte[] open = new byte[64];
+        private int depth = 0;
+        private boolean inString = false;
+        private boolean escape = false;
+        private boolean finished = false;
+
+        private Scanner(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * @return [start, end) of the next chunk or null if the array is over
+         */
+        private long[] nextChunk() throws IOException, UtilsException {
+            if (finished) {
+                return null;
+            }
+            if (chunkStart < 0) {
+                skipToArrayStart();
+            }
+            while (position < size) {
+                final long pos = position;
+                final byte b = next();
+                if (inString) {
+                    if (escape) {
+                        escape = false;
+                    } else if (b == '\\') {
+                        escape = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                } else if (b == '"') {
+                    inString = true;
+                } else if (b == '[' || b == '{') {
+                    if (depth == open.length) {
+                        open = Arrays.copyOf(open, depth * 2);
+                    }
+                    open[depth++] = b;
+                } else if (b == ']' || b == '}') {
+                    if (open[--depth] != (b == ']' ? '[' : '{')) {
+                        throw new UtilsException(UtilsException.Type.PARSING, "unexpected '" + (char) b
+                                + "' at offset " + pos, null);
+                    }
+                    if (depth == 0) {
+                        finished = true;
+                        skipTrailingWhitespace();
+                        return new long[]{chunkStart, pos};
+                    }
+                } else if (b == ',' && depth == 1 && pos - chunkStart >= chunkSize) {
+                    final long[] ret = new long[]{chunkStart, pos};
+                    chunkStart = pos + 1;
+                    return ret;
+                }
+            }
+            throw new UtilsException(UtilsException.Type.PARSING, "unexpected end of file, array is not closed", null);
+        }
+
+        private void skipToArrayStart() throws IOException, UtilsException {
+            // UTF-8 BOM, all three bytes in order as Jackson requires them
+            if (size > 0 && next() == (byte) 0xEF) {
+                if (size < 3 || next() != (byte) 0xBB || next() != (byte) 0xBF) {
+                    throw new UtilsException(UtilsException.Type.PARSING, "invalid UTF-8 BOM", null);
+                }
+            } else {
+                position = 0;
+            }
+            while (position < size) {
+                final byte b = next();
+                if (b == '[') {
+                    open[depth++] = b;
+                    chunkStart = position;
+                    return;
+                }
+                if (!isWhitespace(b)) {
+                    throw new UtilsException(UtilsException.Type.PARSING, "top-level value is not an array", null);
+                }
+            }
+            throw new UtilsException(UtilsException.Type.PARSING, "file is empty", null);
+        }
+
+        private void skipTrailingWhitespace() throws IOException, UtilsException {
+            while (position < size) {
+                final long pos = position;
+                if (!isWhitespace(next())) {
+                    throw new UtilsException(UtilsException.Type.PARSING, "unexpected content after the array at offset "
+                            + pos, null);
+                }
+            }
+        }
+
+        private boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+        }
+
+        private byte next() throws IOException {
+            if (window == null || position - windowStart >= window.limit()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SCAN_WINDOW, size - position));
+            }
+            return window.get((int) (position++ - windowStart));
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package org.repetti.utils.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.JsonHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Token stream version of {@link JsonHelper#printFormattedSorted(com.fasterxml.jackson.databind.JsonNode)}.
+ * <p/>
+ * Arrays are written as they are read. Values of the fields of an object are formatted one after another to a spool
+ * while names are sorted, then the values are copied out in the order of the names. Past {@code maxBufferedChars}
+ * the spool continues in a temporary file and sorted runs of names are spilled to temporary files and merged on
+ * output, so memory stays bounded per nesting level for values of any size and objects of any width, which finish
+ * in O(n log n). Temporary files are deleted as soon as their object is written, on errors too.
+ * <p/>
+ * Unlike the tree based printer duplicate field names are kept as is. Instances are not thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class SortedStreamFormatter {
+    public static final int DEFAULT_MAX_BUFFERED_CHARS = 16 * 1024 * 1024;
+    private static final Logger log = LoggerFactory.getLogger(SortedStreamFormatter.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+    /**
+     * Estimate of memory taken by a buffered field besides its name
+     */
+    private static final int FIELD_CHARS = 32;
+
+    private final Appendable out;
+    private final int tabSize;
+    private final int maxBufferedChars;
+    /**
+     * Reusable per nesting level state, objects nested in an object being sorted use deeper levels
+     */
+    private final List<Level> levels = new ArrayList<Level>();
+    private final JsonEscaper escaper = new JsonEscaper();
+
+    public SortedStreamFormatter(@NotNull Appendable out, int tabSize) {
+        this(out, tabSize, DEFAULT_MAX_BUFFERED_CHARS);
+    }
+
+    /**
+     * @param maxBufferedChars size of formatted values, and separately of names, of one object kept in memory before
+     *                         spilling to disk
+     */
+    public SortedStreamFormatter(@NotNull Appendable out, int tabSize, int maxBufferedChars) {
+        this.out = out;
+        this.tabSize = tabSize;
+        this.maxBufferedChars = maxBufferedChars;
+    }
+
+    /**
+     * Formats all root values from the parser, each starts from a new line. Parser is not closed.
+     */
+    public void format(@NotNull JsonParser parser) throws IOException {
+        boolean first = true;
+        while (parser.nextToken() != null) {
+            if (!first) {
+                out.append('\n');
+            }
+            first = false;
+            write(parser, out, 0, 0);
+        }
+    }
+
+    /**
+     * Writes the value of the current token
+     */
+    private void write(JsonParser parser, Appendable dst, int spaces, int level) throws IOException {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_ARRAY) {
+            dst.append('[');
+            boolean notEmpty = false;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                dst.append(notEmpty ? ",\n" : "\n");
+                notEmpty = true;
+                JsonPrinter.indent(dst, spaces + tabSize);
+                write(parser, dst, spaces + tabSize, level);
+            }
+            if (notEmpty) {
+                dst.append('\n');
+                JsonPrinter.indent(dst, spaces);
+            }
+            dst.append(']');
+        } else if (token == JsonToken.START_OBJECT) {
+            writeObject(parser, dst, spaces, level);
+        } else if (token == JsonToken.VALUE_STRING) {
+            JsonEscaper.appendQuoted(dst, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        } else {
+            dst.append(scalar(parser, token));
+        }
+    }
+
+    private void writeObject(JsonParser parser, Appendable dst, int spaces, int level) throws IOException {
+        if (levels.size() <= level) {
+            levels.add(new Level());
+        }
+        final Level l = levels.get(level);
+        try {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+                final long start = l.values.length();
+                write(parser, l.values, spaces + tabSize, level + 1);
+                l.add(name, start, l.values.length());
+                if (l.chars > maxBufferedChars) {
+                    l.spill();
+                }
+            }
+            dst.append('{');
+            if (l.runs.isEmpty()) {
+                // a single field needs no sorting
+                if (l.size > 1) {
+                    Sorting.sort(l.fields, 0, l.size, Sorting.BY_KEY);
+                }
+                for (int i = 0; i < l.size; i++) {
+                    writeField(dst, i == 0, spaces, l.fields[i], l.values);
+                }
+                if (l.size > 0) {
+                    dst.append('\n');
+                    JsonPrinter.indent(dst, spaces);
+                }
+            } else {
+                l.spill();
+                merge(l, dst, spaces);
+                dst.append('\n');
+                JsonPrinter.indent(dst, spaces);
+            }
+            dst.append('}');
+        } finally {
+            l.clear();
+        }
+    }
+
+    private void writeField(Appendable dst, boolean first, int spaces, ValueField field, Spool values) throws IOException {
+        dst.append(first ? "\n" : ",\n");
+        JsonPrinter.indent(dst, spaces + tabSize);
+        escaper.appendKey(dst, field.key);
+        dst.append(": ");
+        values.copy(field.start, field.end, dst);
+    }
+
+    private void merge(Level l, Appendable dst, int spaces) throws IOException {
+        log.debug("merging {} sorted runs", l.runs.size());
+        final PriorityQueue<Run> queue = new PriorityQueue<Run>(l.runs.size(), Sorting.BY_KEY);
+        final List<Run> open = new ArrayList<Run>(l.runs.size());
+        try {
+            for (File f : l.runs) {
+                final Run r = new Run(f);
+                open.add(r);
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+            boolean first = true;
+            while (!queue.isEmpty()) {
+                final Run r = queue.poll();
+                writeField(dst, first, spaces, r, l.values);
+                first = false;
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+        } finally {
+            for (Run r : open) {
+                r.close();
+            }
+        }
+    }
+
+    /**
+     * Text of a scalar token, same as toString() of the corresponding tree node
+     */
+    static String scalar(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return JsonEscaper.quote(parser.getText());
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return Integer.toString(parser.getIntValue());
+                    case LONG:
+                        return Long.toString(parser.getLongValue());
+                    default:
+                        return parser.getBigIntegerValue().toString();
+                }
+            case VALUE_NUMBER_FLOAT:
+                return Double.toString(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return "true";
+            case VALUE_FALSE:
+                return "false";
+            case VALUE_NULL:
+                return "null";
+            default:
+                return parser.getText();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] b = s.getBytes(UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, UTF_8);
+    }
+
+    /**
+     * Fields of one object being sorted, arrays are reused by all objects of the same nesting level
+     */
+    private class Level {
+        /**
+         * Formatted values of the fields one after another, fields hold their ranges
+         */
+        private final Spool values = new Spool(maxBufferedChars);
+        private final List<File> runs = new ArrayList<File>();
+        private ValueField[] fields = new ValueField[16];
+        private int size = 0;
+        /**
+         * Estimate of memory used by buffered names and ranges
+         */
+        private long chars = 0;
+
+        private void add(String name, long start, long end) {
+            if (size == fields.length) {
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            if (fields[size] == null) {
+                fields[size] = new ValueField();
+            }
+            final ValueField f = fields[size++];
+            f.key = name;
+            f.start = start;
+            f.end = end;
+            chars += name.length() + FIELD_CHARS;
+        }
+
+        /**
+         * Sorts buffered fields and writes names and value ranges to a new temporary file
+         */
+        private void spill() throws IOException {
+            Sorting.sort(fields, 0, size, Sorting.BY_KEY);
+            final File f = File.createTempFile("json-sort", ".run");
+            runs.add(f);
+            log.trace("spilling {} fields to {}", size, f);
+            final DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 64 * 1024));
+            try {
+                for (int i = 0; i < size; i++) {
+                    writeString(o, fields[i].key);
+                    o.writeLong(fields[i].start);
+                    o.writeLong(fields[i].end);
+                }
+            } finally {
+                o.close();
+            }
+            release();
+        }
+
+        /**
+         * Drops the object and deletes its temporary files
+         */
+        private void clear() {
+            release();
+            values.clear();
+            for (File f : runs) {
+                delete(f);
+            }
+            runs.clear();
+        }
+
+        /**
+         * Drops buffered fields, holders are kept for the next object
+         */
+        private void release() {
+            for (int i = 0; i < size; i++) {
+                fields[i].key = null;
+            }
+            size = 0;
+            chars = 0;
+        }
+    }
+
+    private static void delete(File f) {
+        if (!f.delete()) {
+            log.warn("unable to delete temporary file {}", f);
+        }
+    }
+
+    /**
+     * Text appended in memory up to the limit, after that to a temporary file. Characters are stored as UTF-16, two
+     * bytes each, so a range of the text is a range of the file.
+     */
+    private static class Spool implements Appendable {
+        private final int maxChars;
+        private final StringBuilder buffer = new StringBuilder();
+        private final byte[] bytes = new byte[64 * 1024];
+        private final char[] chars = new char[bytes.length / 2];
+        private final CharBuffer charBuffer = CharBuffer.wrap(chars);
+        private File file;
+        private Writer writer;
+        private RandomAccessFile reader;
+        private long length = 0;
+
+        private Spool(int maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        private long length() {
+            return length;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            if (writer == null) {
+                buffer.append(csq, start, end);
+                if (buffer.length() > maxChars) {
+                    spill();
+                }
+            } else {
+                writer.append(csq, start, end);
+            }
+            length += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (writer == null) {
+                buffer.append(c);
+                if (buffer.length() > maxChars) {
+                    spill();
+                }
+            } else {
+                writer.append(c);
+            }
+            length++;
+            return this;
+        }
+
+        private void spill() throws IOException {
+            file = File.createTempFile("json-sort", ".values");
+            log.trace("spilling {} chars of values to {}", buffer.length(), file);
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_16BE), 64 * 1024);
+            writer.append(buffer);
+            buffer.setLength(0);
+        }
+
+        /**
+         * Appends range [start, end) of the text to the destination
+         */
+        private void copy(long start, long end, Appendable dst) throws IOException {
+            if (writer == null) {
+                dst.append(buffer, (int) start, (int) end);
+                return;
+            }
+            writer.flush();
+            if (reader == null) {
+                reader = new RandomAccessFile(file, "r");
+            }
+            reader.seek(start * 2);
+            long remaining = end - start;
+            while (remaining > 0) {
+                final int n = (int) Math.min(remaining, chars.length);
+                reader.readFully(bytes, 0, n * 2);
+                for (int i = 0; i < n; i++) {
+                    chars[i] = (char) ((bytes[i * 2] << 8) | (bytes[i * 2 + 1] & 0xff));
+                }
+                dst.append(charBuffer, 0, n);
+                remaining -= n;
+            }
+        }
+
+        /**
+         * Drops the text and deletes the temporary file, the buffer is kept for the next object
+         */
+        private void clear() {
+            buffer.setLength(0);
+            length = 0;
+            if (file != null) {
+                close(writer);
+                close(reader);
+                writer = null;
+                reader = null;
+                delete(file);
+                file = null;
+            }
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                log.warn("Exception while closing temporary file", e);
+            }
+        }
+    }
+
+    private static class ValueField extends Sorting.Field {
+        /**
+         * Range of the value in {@link Level#values}
+         */
+        long start;
+        long end;
+    }
+
+    /**
+     * Reader of a spilled run, holds the current field to be ordered by the merge queue
+     */
+    private static class Run extends ValueField {
+        private final DataInputStream in;
+
+        private Run(File f) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64 * 1024));
+        }
+
+        private boolean next() throws IOException {
+            try {
+                key = readString(in);
+            } catch (EOFException e) {
+                return false;
+            }
+            start = in.readLong();
+            end = in.readLong();
+            return true;
+        }
+
+        private void close() {
+            SortedStreamFormatter.close(in);
+        }
+    }
+}
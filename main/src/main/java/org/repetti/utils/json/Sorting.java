@@ -0,0 +1,94 @@
+package org.repetti.utils.json;
+
+import java.util.Comparator;
+
+/**
+ * In-place sorting of fields by name. Unlike {@link java.util.Arrays#sort(Object[], Comparator)} no temporary
+ * arrays are allocated, which matters when millions of small objects are sorted one by one.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+class Sorting {
+    /**
+     * Natural order of field names, same as used by {@link java.util.TreeSet} of names before
+     */
+    static final Comparator<Field> BY_KEY = new Comparator<Field>() {
+        @Override
+        public int compare(Field o1, Field o2) {
+            return o1.key.compareTo(o2.key);
+        }
+    };
+
+    private static final int INSERTION_THRESHOLD = 16;
+
+    /**
+     * Sorts range [from, to) of the array. Not stable.
+     * <p/>
+     * Partitioning is three-way, so runs of equal elements (duplicate field names of streamed objects) are
+     * finished in one pass instead of degrading to quadratic time.
+     */
+    static <T> void sort(T[] a, int from, int to, Comparator<? super T> c) {
+        while (to - from > INSERTION_THRESHOLD) {
+            final T pivot = pivot(a, from, to, c);
+            // [from, lt) < pivot, [lt, i) == pivot, [gt, to) > pivot
+            int lt = from;
+            int i = from;
+            int gt = to;
+            while (i < gt) {
+                final int cmp = c.compare(a[i], pivot);
+                if (cmp < 0) {
+                    swap(a, lt++, i++);
+                } else if (cmp > 0) {
+                    swap(a, i, --gt);
+                } else {
+                    i++;
+                }
+            }
+            // recursion only into the smaller part keeps the stack depth logarithmic
+            if (lt - from < to - gt) {
+                sort(a, from, lt, c);
+                from = gt;
+            } else {
+                sort(a, gt, to, c);
+                to = lt;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            final T cur = a[i];
+            int j = i - 1;
+            while (j >= from && c.compare(a[j], cur) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = cur;
+        }
+    }
+
+    /**
+     * @return median of the first, middle and last element
+     */
+    private static <T> T pivot(T[] a, int from, int to, Comparator<? super T> c) {
+        final T x = a[from];
+        final T y = a[(from + to - 1) >>> 1];
+        final T z = a[to - 1];
+        if (c.compare(x, y) < 0) {
+            return c.compare(y, z) < 0 ? y : c.compare(x, z) < 0 ? z : x;
+        }
+        return c.compare(x, z) < 0 ? x : c.compare(y, z) < 0 ? z : y;
+    }
+
+    private static void swap(Object[] a, int i, int j) {
+        final Object tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+
+    /**
+     * Name of a field being sorted, subclasses hold the value. Instances are reused for many fields.
+     */
+    abstract static class Field {
+        String key;
+    }
+}
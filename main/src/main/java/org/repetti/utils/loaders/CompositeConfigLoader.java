@@ -0,0 +1,249 @@
+package org.repetti.utils.loaders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.UtilsException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Several configs combined by precedence, e.g. defaults, an environment file and command line arguments
+ * ({@link ConfigLoader#loadArgs(String, String...)}). Later layers override earlier ones.
+ * <p/>
+ * The layer owning each key is resolved once when the composite is built, a getter is one map lookup and a call of
+ * the owning layer. Missing keys are answered without asking the layers: safe getters and getters with
+ * {@code throwException == false} return the default, others throw NOT_FOUND.
+ * <p/>
+ * If a key holds configs in several layers, {@link #getConfig(String)} returns a composite of them built on first
+ * use, layers above the topmost non-config value are merged, values are not copied. Other getters (getJson and
+ * getConfigs included) return the value of the owning layer as is.
+ * <p/>
+ * Keys of the layers are read once, layers backed by mutable data should not change afterwards, use
+ * {@link ConfigLoader#snapshot()} of the layers otherwise.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class CompositeConfigLoader extends ConfigLoader {
+    private final List<ConfigLoader> layers;
+    private final Map<String, ConfigLoader> owners;
+    private final Set<String> fieldNames;
+    private final ConcurrentMap<String, ConfigLoader> nested = new ConcurrentHashMap<String, ConfigLoader>();
+
+    /**
+     * @param layers from the lowest precedence to the highest
+     */
+    public CompositeConfigLoader(@NotNull ConfigLoader... layers) {
+        this(Arrays.asList(layers));
+    }
+
+    /**
+     * @param layers from the lowest precedence to the highest
+     */
+    public CompositeConfigLoader(@NotNull List<ConfigLoader> layers) {
+        this.layers = Collections.unmodifiableList(new ArrayList<ConfigLoader>(layers));
+        final Map<String, ConfigLoader> tmp = new HashMap<String, ConfigLoader>();
+        final Set<String> names = new LinkedHashSet<String>();
+        for (ConfigLoader layer : this.layers) {
+            for (String key : layer.getFieldNames()) {
+                tmp.put(key, layer);
+                names.add(key);
+            }
+        }
+        this.owners = tmp;
+        this.fieldNames = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return layers from the lowest precedence to the highest
+     */
+    @NotNull
+    public List<ConfigLoader> getLayers() {
+        return layers;
+    }
+
+    /**
+     * @return layer the value of the key is taken from, null if no layer has it
+     */
+    public ConfigLoader getOwner(String key) {
+        return owners.get(key);
+    }
+
+    @Override
+    public boolean has(String key) {
+        return owners.containsKey(key);
+    }
+
+    @Override
+    public boolean isNull(String key, boolean throwException) throws UtilsException {
+        final ConfigLoader owner = owners.get(key);
+        if (owner == null) {
+            if (throwException) {
+                throw getException(ExceptionType.NOT_FOUND, key);
+            }
+            return true;
+        }
+        return owner.isNull(key, throwException);
+    }
+
+    @Override
+    public boolean isString(String key, boolean throwException) throws UtilsException {
+        final ConfigLoader owner = owners.get(key);
+        if (owner == null) {
+            if (throwException) {
+                throw getException(ExceptionType.NOT_FOUND, key);
+            }
+            return false;
+        }
+        return owner.isString(key, throwException);
+    }
+
+    @Override
+    public List<ConfigLoader> getConfigs(String key, boolean throwException) throws UtilsException {
+        final ConfigLoader owner = owners.get(key);
+        if (owner == null) {
+            if (throwException) {
+                throw getException(ExceptionType.NOT_FOUND, key);
+            }
+            return null;
+        }
+        return owner.getConfigs(key, throwException);
+    }
+
+    @Override
+    public List<String> getStrings(String key) throws UtilsException {
+        return owner(key).getStrings(key);
+    }
+
+    @Override
+    public int getInteger(String key) throws UtilsException {
+        return owner(key).getInteger(key);
+    }
+
+    @Override
+    public int getIntegerSafe(String key, int defaultValue) {
+        final ConfigLoader owner = owners.get(key);
+        return owner == null ? defaultValue : owner.getIntegerSafe(key, defaultValue);
+    }
+
+    @Override
+    public JsonNode getJson(String key, boolean throwException) throws UtilsException {
+        final ConfigLoader owner = owners.get(key);
+        if (owner == null) {
+            if (throwException) {
+                throw getException(ExceptionType.NOT_FOUND, key);
+            }
+            return NullNode.getInstance();
+        }
+        return owner.getJson(key, throwException);
+    }
+
+    @Override
+    public ConfigLoader getConfig(String key) throws UtilsException {
+        ConfigLoader ret = nested.get(key);
+        if (ret == null) {
+            final ConfigLoader tmp = merge(key);
+            ret = nested.putIfAbsent(key, tmp);
+            if (ret == null) {
+                ret = tmp;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return config of the owning layer merged with configs of lower layers down to the first other value
+     */
+    private ConfigLoader merge(String key) throws UtilsException {
+        final ConfigLoader top = owner(key).getConfig(key);
+        final List<ConfigLoader> found = new ArrayList<ConfigLoader>();
+        found.add(top);
+        for (int i = layers.lastIndexOf(owners.get(key)) - 1; i >= 0; i--) {
+            final ConfigLoader layer = layers.get(i);
+            if (!layer.has(key)) {
+                continue;
+            }
+            try {
+                found.add(layer.getConfig(key));
+            } catch (UtilsException e) {
+                // not a config, shadows the layers below
+                break;
+            }
+        }
+        if (found.size() == 1) {
+            return top;
+        }
+        Collections.reverse(found);
+        return new CompositeConfigLoader(found);
+    }
+
+    @Override
+    public boolean getBoolean(String key) throws UtilsException {
+        return owner(key).getBoolean(key);
+    }
+
+    @Override
+    public String getString(String key) throws UtilsException {
+        return owner(key).getString(key);
+    }
+
+    @Override
+    public String getStringSafe(String key) {
+        final ConfigLoader owner = owners.get(key);
+        return owner == null ? null : owner.getStringSafe(key);
+    }
+
+    @Override
+    public boolean getBooleanSafe(String key, boolean defaultValue) {
+        final ConfigLoader owner = owners.get(key);
+        return owner == null ? defaultValue : owner.getBooleanSafe(key, defaultValue);
+    }
+
+    @Override
+    public Object findValue(String key) {
+        final ConfigLoader owner = owners.get(key);
+        return owner == null ? null : owner.findValue(key);
+    }
+
+    @Override
+    public Integer findInteger(String key) {
+        final ConfigLoader owner = owners.get(key);
+        return owner == null ? null : owner.findInteger(key);
+    }
+
+    @Override
+    public Boolean findBoolean(String key) {
+        final ConfigLoader owner = owners.get(key);
+        return owner == null ? null : owner.findBoolean(key);
+    }
+
+    @Override
+    public Set<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    private ConfigLoader owner(String key) throws UtilsException {
+        final ConfigLoader ret = owners.get(key);
+        if (ret == null) {
+            throw getException(ExceptionType.NOT_FOUND, key);
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return "CompositeConfigLoader{" + layers + '}';
+    }
+}
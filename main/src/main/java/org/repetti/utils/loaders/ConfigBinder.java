@@ -0,0 +1,388 @@
+package org.repetti.utils.loaders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jetbrains.annotations.NotNull;
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.UtilsException;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds configs onto typed objects instead of calling getters per field by hand.
+ * <p/>
+ * Supported targets are classes with a public no-argument constructor, whose public fields and setters are filled,
+ * and interfaces, whose getters ({@code getX()}, {@code isX()} or {@code x()}) return the bound values. The key is the
+ * property name unless {@link Key} says otherwise. Values can be strings, numbers, booleans, enums, JsonNode,
+ * ConfigLoader, nested bindable types and lists of strings, configs or bindable types.
+ * <p/>
+ * Accessors are resolved to {@link MethodHandle}s once per class and cached, so binding many configs of the same
+ * type costs about as much as hand written code. All missing and ill-typed keys are collected in one pass and
+ * reported by a single exception.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class ConfigBinder {
+    private static final ClassValue<Binding> bindings = new ClassValue<Binding>() {
+        @Override
+        protected Binding computeValue(Class<?> type) {
+            return new Binding(type);
+        }
+    };
+
+    private ConfigBinder() {
+    }
+
+    /**
+     * @throws UtilsException listing all missing and ill-typed keys
+     */
+    @NotNull
+    public static <T> T bind(@NotNull ConfigLoader config, @NotNull Class<T> type) throws UtilsException {
+        final List<String> errors = new ArrayList<String>();
+        final Object ret = bindings.get(type).bind(config, "", errors);
+        if (!errors.isEmpty()) {
+            throw new UtilsException(UtilsException.Type.PARAMETERS, "can't bind " + type.getName() + ": " + errors, null);
+        }
+        return type.cast(ret);
+    }
+
+    /**
+     * @throws UtilsException listing all missing and ill-typed keys of all configs
+     */
+    @NotNull
+    public static <T> List<T> bindAll(@NotNull List<ConfigLoader> configs, @NotNull Class<T> type) throws UtilsException {
+        final Binding binding = bindings.get(type);
+        final List<String> errors = new ArrayList<String>();
+        final List<T> ret = new ArrayList<T>(configs.size());
+        for (int i = 0; i < configs.size(); i++) {
+            ret.add(type.cast(binding.bind(configs.get(i), "[" + i + "].", errors)));
+        }
+        if (!errors.isEmpty()) {
+            throw new UtilsException(UtilsException.Type.PARAMETERS, "can't bind " + type.getName() + ": " + errors, null);
+        }
+        return ret;
+    }
+
+    /**
+     * Config key of a field, setter or interface getter
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD, ElementType.METHOD})
+    public @interface Key {
+        /**
+         * @return key name, property name if empty
+         */
+        String value() default "";
+
+        /**
+         * @return true if the key may be missing, the property keeps its default value then
+         */
+        boolean optional() default false;
+    }
+
+    private enum Kind {
+        STRING, INT, LONG, DOUBLE, BOOLEAN, ENUM, STRINGS, JSON, CONFIG, CONFIGS, BEAN, BEANS
+    }
+
+    /**
+     * Accessors of one class resolved once
+     */
+    private static class Binding {
+        private final Class<?> type;
+        /**
+         * Reason the type can't be bound, null if it can
+         */
+        private String problem;
+        private final List<Property> properties = new ArrayList<Property>();
+        /**
+         * () -> Object for classes, (InvocationHandler) -> Object for interfaces
+         */
+        private MethodHandle constructor;
+        private final Map<Method, Integer> getters = new HashMap<Method, Integer>();
+
+        private Binding(Class<?> type) {
+            this.type = type;
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            try {
+                if (type.isInterface()) {
+                    final Class<?> proxy = Proxy.getProxyClass(type.getClassLoader(), type);
+                    constructor = lookup.unreflectConstructor(proxy.getConstructor(InvocationHandler.class))
+                            .asType(MethodType.methodType(Object.class, InvocationHandler.class));
+                    for (Method m : type.getMethods()) {
+                        if (m.getParameterTypes().length != 0 || m.getReturnType() == void.class
+                                || Modifier.isStatic(m.getModifiers())) {
+                            continue;
+                        }
+                        getters.put(m, properties.size());
+                        properties.add(new Property(propertyName(m.getName(), false), m.getAnnotation(Key.class),
+                                m.getReturnType(), m.getGenericReturnType(), null));
+                    }
+                } else {
+                    constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                            .asType(MethodType.methodType(Object.class));
+                    for (Field f : type.getFields()) {
+                        if (Modifier.isStatic(f.getModifiers()) || Modifier.isFinal(f.getModifiers())) {
+                            continue;
+                        }
+                        properties.add(new Property(f.getName(), f.getAnnotation(Key.class), f.getType(),
+                                f.getGenericType(), lookup.unreflectSetter(f)));
+                    }
+                    for (Method m : type.getMethods()) {
+                        if (m.getParameterTypes().length != 1 || !m.getName().startsWith("set")
+                                || m.getName().length() < 4 || Modifier.isStatic(m.getModifiers())) {
+                            continue;
+                        }
+                        properties.add(new Property(propertyName(m.getName(), true), m.getAnnotation(Key.class),
+                                m.getParameterTypes()[0], m.getGenericParameterTypes()[0], lookup.unreflect(m)));
+                    }
+                }
+            } catch (NoSuchMethodException e) {
+                problem = "no public constructor without arguments";
+            } catch (IllegalAccessException e) {
+                problem = "not accessible: " + e.getMessage();
+            }
+            for (Property p : properties) {
+                if (p.kind == null) {
+                    problem = "unsupported type of '" + p.key + "': " + p.generic;
+                }
+            }
+        }
+
+        private static String propertyName(String method, boolean setter) {
+            final int prefix;
+            if (setter || (method.startsWith("get") && method.length() > 3)) {
+                prefix = 3;
+            } else if (method.startsWith("is") && method.length() > 2) {
+                prefix = 2;
+            } else {
+                return method;
+            }
+            return Character.toLowerCase(method.charAt(prefix)) + method.substring(prefix + 1);
+        }
+
+        private Object bind(ConfigLoader config, String path, List<String> errors) {
+            if (problem != null) {
+                errors.add(path + type.getName() + " " + problem);
+                return null;
+            }
+            final Object[] values = new Object[properties.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = properties.get(i).read(config, path, errors);
+            }
+            try {
+                if (type.isInterface()) {
+                    return constructor.invokeExact((InvocationHandler) new Handler(this, values));
+                }
+                final Object ret = constructor.invokeExact();
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != Property.ABSENT) {
+                        properties.get(i).setter.invokeExact(ret, values[i]);
+                    }
+                }
+                return ret;
+            } catch (Throwable e) {
+                errors.add(path + type.getName() + " can't be created: " + e);
+                return null;
+            }
+        }
+    }
+
+    private static class Property {
+        /**
+         * Value of missing optional keys
+         */
+        private static final Object ABSENT = new Object();
+
+        private final String key;
+        private final boolean optional;
+        private final Type generic;
+        private final Class<?> raw;
+        private final Kind kind;
+        /**
+         * Enum or bindable type of BEAN, ENUM and BEANS
+         */
+        private final Class<?> element;
+        /**
+         * (Object, Object) -> void, null for interface getters
+         */
+        private final MethodHandle setter;
+
+        private Property(String name, Key annotation, Class<?> raw, Type generic, MethodHandle setter) {
+            this.key = annotation == null || annotation.value().isEmpty() ? name : annotation.value();
+            this.optional = annotation != null && annotation.optional();
+            this.raw = raw;
+            this.generic = generic;
+            this.setter = setter == null ? null
+                    : setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            Class<?> element = null;
+            Kind kind = null;
+            if (raw == String.class) {
+                kind = Kind.STRING;
+            } else if (raw == int.class || raw == Integer.class) {
+                kind = Kind.INT;
+            } else if (raw == long.class || raw == Long.class) {
+                kind = Kind.LONG;
+            } else if (raw == double.class || raw == Double.class) {
+                kind = Kind.DOUBLE;
+            } else if (raw == boolean.class || raw == Boolean.class) {
+                kind = Kind.BOOLEAN;
+            } else if (raw.isEnum()) {
+                kind = Kind.ENUM;
+                element = raw;
+            } else if (JsonNode.class.isAssignableFrom(raw)) {
+                kind = Kind.JSON;
+            } else if (raw == ConfigLoader.class) {
+                kind = Kind.CONFIG;
+            } else if ((raw == List.class || raw == Collection.class) && generic instanceof ParameterizedType) {
+                final Type arg = ((ParameterizedType) generic).getActualTypeArguments()[0];
+                if (arg == String.class) {
+                    kind = Kind.STRINGS;
+                } else if (arg == ConfigLoader.class) {
+                    kind = Kind.CONFIGS;
+                } else if (arg instanceof Class && isBean((Class<?>) arg)) {
+                    kind = Kind.BEANS;
+                    element = (Class<?>) arg;
+                }
+            } else if (isBean(raw)) {
+                kind = Kind.BEAN;
+                element = raw;
+            }
+            this.kind = kind;
+            this.element = element;
+        }
+
+        private static boolean isBean(Class<?> type) {
+            return !type.isPrimitive() && !type.isArray() && !type.getName().startsWith("java.");
+        }
+
+        /**
+         * @return value, {@link #ABSENT} or null on errors which are added to the list
+         */
+        private Object read(ConfigLoader config, String path, List<String> errors) {
+            if (!config.has(key)) {
+                if (!optional) {
+                    errors.add(path + key + " is missing");
+                }
+                return ABSENT;
+            }
+            try {
+                if (config.isNull(key, false)) {
+                    if (raw.isPrimitive()) {
+                        errors.add(path + key + " is null");
+                    }
+                    return raw.isPrimitive() ? ABSENT : null;
+                }
+                switch (kind) {
+                    case STRING:
+                        return config.getString(key);
+                    case INT:
+                        return config.getInteger(key);
+                    case LONG:
+                        return Long.parseLong(config.getString(key));
+                    case DOUBLE:
+                        return Double.parseDouble(config.getString(key));
+                    case BOOLEAN:
+                        return config.getBoolean(key);
+                    case ENUM:
+                        return enumValue(element, config.getString(key));
+                    case STRINGS:
+                        return config.getStrings(key);
+                    case JSON:
+                        return config.getJson(key, true);
+                    case CONFIG:
+                        return config.getConfig(key);
+                    case CONFIGS:
+                        return config.getConfigs(key, true);
+                    case BEAN:
+                        return bindings.get(element).bind(config.getConfig(key), path + key + ".", errors);
+                    case BEANS: {
+                        final List<ConfigLoader> configs = config.getConfigs(key, true);
+                        final Binding binding = bindings.get(element);
+                        final List<Object> ret = new ArrayList<Object>(configs.size());
+                        for (int i = 0; i < configs.size(); i++) {
+                            ret.add(binding.bind(configs.get(i), path + key + "[" + i + "].", errors));
+                        }
+                        return ret;
+                    }
+                    default:
+                        throw new IllegalStateException(String.valueOf(kind));
+                }
+            } catch (UtilsException e) {
+                errors.add(path + key + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                errors.add(path + key + ": " + e);
+            }
+            return raw.isPrimitive() ? ABSENT : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Object enumValue(Class<?> type, String name) {
+            return Enum.valueOf((Class) type, name);
+        }
+    }
+
+    /**
+     * Returns values bound to an interface
+     */
+    private static class Handler implements InvocationHandler {
+        private final Binding binding;
+        private final Object[] values;
+
+        private Handler(Binding binding, Object[] values) {
+            this.binding = binding;
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final Integer i = binding.getters.get(method);
+            if (i != null) {
+                final Object ret = values[i];
+                if (ret == Property.ABSENT) {
+                    final Class<?> type = method.getReturnType();
+                    // default value of primitives, null otherwise
+                    return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+                }
+                return ret;
+            }
+            if (method.getName().equals("equals") && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if (method.getName().equals("hashCode") && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            if (method.getName().equals("toString") && args == null) {
+                final StringBuilder sb = new StringBuilder(binding.type.getSimpleName()).append('{');
+                for (int j = 0; j < values.length; j++) {
+                    sb.append(binding.properties.get(j).key).append('=');
+                    sb.append(values[j] == Property.ABSENT ? null : values[j]).append(", ");
+                }
+                if (!binding.properties.isEmpty()) {
+                    sb.setLength(sb.length() - 2);
+                }
+                return sb.append('}').toString();
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+    }
+}
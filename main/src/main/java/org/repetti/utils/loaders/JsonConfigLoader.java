@@ -214,6 +214,23 @@ public class JsonConfigLoader extends ConfigLoader {
         return j.asInt();
     }
 
+    @Override
+    public Integer findInteger(String key) {
+        final JsonNode j = node.get(key);
+        return j == null || !j.isNumber() ? null : j.asInt();
+    }
+
+    @Override
+    public Boolean findBoolean(String key) {
+        final JsonNode j = node.get(key);
+        return j == null ? null : !j.isNull() && j.asBoolean();
+    }
+
+    @Override
+    public Object findValue(String key) {
+        return node.get(key);
+    }
+
     @Override
     public JsonNode getJson(String key, boolean throwException) throws UtilsException {
         if (node.has(key)) {
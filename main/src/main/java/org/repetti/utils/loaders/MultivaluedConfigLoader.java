@@ -1,6 +1,9 @@
 package org.repetti.utils.loaders;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.repetti.utils.ConfigLoader;
@@ -146,6 +149,47 @@ public class MultivaluedConfigLoader extends ConfigLoader {
         }
     }
 
+    /**
+     * @return the single value, an array node of all values or null node if there are none
+     */
+    @Override
+    public Object findValue(String key) {
+        final List<String> ret = getInternalSafe(key);
+        if (ret == null) {
+            return null;
+        }
+        if (ret.size() == 1) {
+            return ret.get(0) == null ? NullNode.getInstance() : ret.get(0);
+        }
+        if (ret.isEmpty()) {
+            return NullNode.getInstance();
+        }
+        final ArrayNode array = JsonNodeFactory.instance.arrayNode();
+        for (String s : ret) {
+            array.add(s);
+        }
+        return array;
+    }
+
+    @Override
+    public Integer findInteger(String key) {
+        final List<String> ret = getInternalSafe(key);
+        if (ret == null || ret.size() == 0) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(ret.get(0));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Boolean findBoolean(String key) {
+        final List<String> ret = multivaluedMap.get(key);
+        return ret == null ? null : ret.size() == 1 && Boolean.parseBoolean(ret.get(0));
+    }
+
     @Nullable
     private List<String> getInternalSafe(String key) {
         List<String> ret = multivaluedMap.get(key);
@@ -12,16 +12,25 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Values holding JSON (getJson, getConfig, getConfigs) are parsed on first use and cached per key together with the
+ * text they were parsed from, the cache entry is used only while the property still has the same text, so changes
+ * of the underlying {@link Properties} are picked up. Returned nodes and configs are shared between calls and must
+ * not be modified.
+ *
  * @author repetti
  */
 public class PropertyConfigLoader extends ConfigLoader {
     private static final Logger log = LoggerFactory.getLogger(PropertyConfigLoader.class);
     private final Properties prop;
+    private final ConcurrentMap<String, Parsed> parsed = new ConcurrentHashMap<String, Parsed>();
 
     public PropertyConfigLoader(Properties prop) throws UtilsException {
         log.trace("PropertyConfigLoader({})", prop);
@@ -100,9 +109,53 @@ public class PropertyConfigLoader extends ConfigLoader {
         }
     }
 
+    @Override
+    public Object findValue(String key) {
+        return prop.getProperty(key);
+    }
+
+    @Override
+    public Integer findInteger(String key) {
+        final String s = prop.getProperty(key);
+        if (s == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Boolean findBoolean(String key) {
+        final String s = prop.getProperty(key);
+        return s == null ? null : Boolean.parseBoolean(s);
+    }
+
     @Override
     public JsonNode getJson(String key, boolean throwException) throws UtilsException {
-        return JsonHelper.parse(getString(key, throwException));
+        final String text = getString(key, throwException);
+        if (text == null) {
+            return JsonHelper.parse(text);
+        }
+        try {
+            return parse(key, text).node;
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error parsing text: " + text, e);
+        }
+    }
+
+    /**
+     * @return cached parse result of the text, parsed again if the property changed since
+     */
+    private Parsed parse(String key, String text) throws IOException {
+        Parsed ret = parsed.get(key);
+        if (ret == null || (ret.text != text && !ret.text.equals(text))) {
+            ret = new Parsed(text, JsonHelper.mapper.readTree(text));
+            parsed.put(key, ret);
+        }
+        return ret;
     }
 
     @Override
@@ -130,7 +183,12 @@ public class PropertyConfigLoader extends ConfigLoader {
     public ConfigLoader getConfig(String key) throws UtilsException {
         log.trace("getConfig({})", key);
         try {
-            return new JsonConfigLoader((ObjectNode) JsonHelper.mapper.readTree(getString(key, true)));
+            final Parsed p = parse(key, getString(key, true));
+            ConfigLoader ret = p.config;
+            if (ret == null) {
+                ret = p.config = new JsonConfigLoader((ObjectNode) p.node);
+            }
+            return ret;
         } catch (IOException e) {
             throw getException(ExceptionType.PARSING, key);
 
@@ -149,12 +207,16 @@ public class PropertyConfigLoader extends ConfigLoader {
                 return null;
             }
         }
-        JsonNode obj;
+        final Parsed p;
         try {
-            obj = JsonHelper.mapper.readTree(getString(key, true));
+            p = parse(key, getString(key, true));
         } catch (IOException e) {
             throw getException(ExceptionType.PARSING, key);
         }
+        if (p.configs != null) {
+            return p.configs;
+        }
+        final JsonNode obj = p.node;
         if (!obj.isArray()) {
             if (throwException) {
                 throw getException(ExceptionType.CAST, key + obj);
@@ -174,7 +236,8 @@ public class PropertyConfigLoader extends ConfigLoader {
                 }
             }
         }
-        return ret;
+        p.configs = Collections.unmodifiableList(ret);
+        return p.configs;
     }
 
     @Override
@@ -207,4 +270,19 @@ public class PropertyConfigLoader extends ConfigLoader {
         return Boolean.parseBoolean(s);
     }
 
+    /**
+     * Parsed JSON value of a property, nested configs are built on first use. Racing threads may build them twice,
+     * the results are equal.
+     */
+    private static class Parsed {
+        private final String text;
+        private final JsonNode node;
+        private volatile ConfigLoader config;
+        private volatile List<ConfigLoader> configs;
+
+        private Parsed(String text, JsonNode node) {
+            this.text = text;
+            this.node = node;
+        }
+    }
 }
@@ -0,0 +1,402 @@
+package org.repetti.utils.loaders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.NamedThreadFactory;
+import org.repetti.utils.UtilsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Config backed by a file which is reloaded when the file changes.
+ * <p/>
+ * The parent directory is watched with a {@link WatchService}, writes are debounced: the file is parsed once no
+ * change was seen for the debounce interval. Parsing happens on a background thread, the result is a
+ * {@link ConfigLoader#snapshot()} swapped in atomically, so readers never block and always see a complete config.
+ * If the new content can't be loaded the previous config stays and a warning is logged.
+ * <p/>
+ * Listeners are registered for a path of nested keys separated by dots ("" for the whole config) and are called
+ * after the swap, only when the value under their path changed. Dotted keys of property files work as paths too.
+ * <p/>
+ * Background threads are not daemons, {@link #close()} the loader when it's not needed any more.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class ReloadingConfigLoader extends ConfigLoader implements Closeable {
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 200;
+    private static final Logger log = LoggerFactory.getLogger(ReloadingConfigLoader.class);
+
+    private final Path file;
+    private final boolean jsonFormat;
+    private final long debounceMillis;
+    private final WatchService watcher;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentMap<String, List<Listener>> listeners = new ConcurrentHashMap<String, List<Listener>>();
+    private final AtomicLong reloads = new AtomicLong();
+    private volatile ConfigLoader current;
+    private ScheduledFuture<?> pending;
+
+    public ReloadingConfigLoader(@NotNull Path file, boolean jsonFormat) throws UtilsException {
+        this(file, jsonFormat, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Loads the file and starts watching it
+     *
+     * @throws UtilsException if the file can't be loaded or watched
+     */
+    public ReloadingConfigLoader(@NotNull Path file, boolean jsonFormat, long debounceMillis) throws UtilsException {
+        this.file = file.toAbsolutePath();
+        this.jsonFormat = jsonFormat;
+        this.debounceMillis = debounceMillis;
+        // watching starts before the first load, so a write in between is not missed
+        try {
+            this.watcher = this.file.getFileSystem().newWatchService();
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "can't watch " + this.file, e);
+        }
+        try {
+            this.file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            this.current = load();
+        } catch (IOException e) {
+            closeWatcher();
+            throw new UtilsException(UtilsException.Type.CONNECTION, "can't watch " + this.file, e);
+        } catch (UtilsException e) {
+            closeWatcher();
+            throw e;
+        }
+        this.executor = Executors.newScheduledThreadPool(2, new NamedThreadFactory(ReloadingConfigLoader.class));
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        });
+    }
+
+    private void closeWatcher() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            log.debug("error closing watcher of {}", file, e);
+        }
+    }
+
+    private ConfigLoader load() throws UtilsException {
+        final byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new UtilsException(UtilsException.Type.CONNECTION, "error reading " + file, e);
+        }
+        return ConfigLoader.loadFile(new ByteArrayInputStream(data), jsonFormat).snapshot();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                final WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                        schedule();
+                    }
+                }
+                if (!key.reset()) {
+                    log.warn("stopped watching {}, directory is not accessible", file);
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.debug("stopped watching {}", file);
+        } catch (InterruptedException e) {
+            log.debug("stopped watching {}", file);
+        }
+    }
+
+    /**
+     * (Re)starts the debounce interval
+     */
+    private synchronized void schedule() {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reload();
+                } catch (UtilsException e) {
+                    log.warn("keeping previous config of {}", file, e);
+                }
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the file now and notifies listeners of changed paths
+     *
+     * @throws UtilsException if the file can't be loaded, the previous config is kept
+     */
+    public synchronized void reload() throws UtilsException {
+        final ConfigLoader next = load();
+        final ConfigLoader previous = current;
+        current = next;
+        reloads.incrementAndGet();
+        log.debug("reloaded {}", file);
+        for (Map.Entry<String, List<Listener>> e : listeners.entrySet()) {
+            final JsonNode before = value(previous, e.getKey());
+            final JsonNode after = value(next, e.getKey());
+            if (before == null ? after == null : before.equals(after)) {
+                continue;
+            }
+            for (Listener listener : e.getValue()) {
+                try {
+                    listener.changed(e.getKey(), before, after);
+                } catch (RuntimeException ex) {
+                    log.warn("listener of '{}' failed", e.getKey(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return value under the path, null if there is none
+     */
+    @Nullable
+    private static JsonNode value(ConfigLoader config, String path) {
+        if (path.isEmpty()) {
+            final ObjectNode ret = JsonNodeFactory.instance.objectNode();
+            for (String key : config.getFieldNames()) {
+                ret.set(key, leaf(config, key));
+            }
+            return ret;
+        }
+        return find(config, path);
+    }
+
+    /**
+     * Keys may contain dots themselves ("auth.db" in property files): the whole path is tried as a key first, then
+     * every dot from the left as a split between a nested config and the rest of the path
+     */
+    @Nullable
+    private static JsonNode find(ConfigLoader config, String path) {
+        if (config.has(path)) {
+            return leaf(config, path);
+        }
+        for (int i = path.indexOf('.'); i > 0; i = path.indexOf('.', i + 1)) {
+            final String key = path.substring(0, i);
+            if (config.has(key)) {
+                try {
+                    final JsonNode ret = find(config.getConfig(key), path.substring(i + 1));
+                    if (ret != null) {
+                        return ret;
+                    }
+                } catch (UtilsException ignored) {
+                    // not a nested config
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Values of property files are not always JSON, they are compared as text then
+     */
+    private static JsonNode leaf(ConfigLoader config, String key) {
+        try {
+            return config.getJson(key, false);
+        } catch (UtilsException e) {
+            return TextNode.valueOf(config.getStringSafe(key));
+        }
+    }
+
+    /**
+     * @param path key or nested keys separated by dots, "" for any change
+     */
+    public void addListener(@NotNull String path, @NotNull Listener listener) {
+        List<Listener> list = listeners.get(path);
+        if (list == null) {
+            final List<Listener> tmp = new CopyOnWriteArrayList<Listener>();
+            list = listeners.putIfAbsent(path, tmp);
+            if (list == null) {
+                list = tmp;
+            }
+        }
+        list.add(listener);
+    }
+
+    public void removeListener(@NotNull String path, @NotNull Listener listener) {
+        final List<Listener> list = listeners.get(path);
+        if (list != null) {
+            list.remove(listener);
+        }
+    }
+
+    /**
+     * @return current immutable config, stays the same for the caller while the file changes
+     */
+    @NotNull
+    public ConfigLoader getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return number of successful reloads
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    @NotNull
+    public Path getPath() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            watcher.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the current snapshot, not this loader
+     */
+    @Override
+    public ConfigLoader snapshot() {
+        return current;
+    }
+
+    @Override
+    public boolean has(String key) {
+        return current.has(key);
+    }
+
+    @Override
+    public boolean isNull(String key, boolean throwException) throws UtilsException {
+        return current.isNull(key, throwException);
+    }
+
+    @Override
+    public boolean isString(String key, boolean throwException) throws UtilsException {
+        return current.isString(key, throwException);
+    }
+
+    @Override
+    public List<ConfigLoader> getConfigs(String key, boolean throwException) throws UtilsException {
+        return current.getConfigs(key, throwException);
+    }
+
+    @Override
+    public List<String> getStrings(String key) throws UtilsException {
+        return current.getStrings(key);
+    }
+
+    @Override
+    public int getInteger(String key) throws UtilsException {
+        return current.getInteger(key);
+    }
+
+    @Override
+    public int getIntegerSafe(String key, int defaultValue) {
+        return current.getIntegerSafe(key, defaultValue);
+    }
+
+    @Override
+    public JsonNode getJson(String key, boolean throwException) throws UtilsException {
+        return current.getJson(key, throwException);
+    }
+
+    @Override
+    public ConfigLoader getConfig(String key) throws UtilsException {
+        return current.getConfig(key);
+    }
+
+    @Override
+    public boolean getBoolean(String key) throws UtilsException {
+        return current.getBoolean(key);
+    }
+
+    @Override
+    public String getString(String key) throws UtilsException {
+        return current.getString(key);
+    }
+
+    @Override
+    public String getStringSafe(String key) {
+        return current.getStringSafe(key);
+    }
+
+    @Override
+    public boolean getBooleanSafe(String key, boolean defaultValue) {
+        return current.getBooleanSafe(key, defaultValue);
+    }
+
+    @Override
+    public Object findValue(String key) {
+        return current.findValue(key);
+    }
+
+    @Override
+    public Integer findInteger(String key) {
+        return current.findInteger(key);
+    }
+
+    @Override
+    public Boolean findBoolean(String key) {
+        return current.findBoolean(key);
+    }
+
+    @Override
+    public Set<String> getFieldNames() {
+        return current.getFieldNames();
+    }
+
+    @Override
+    public String toString() {
+        return "ReloadingConfigLoader{" + file + '}';
+    }
+
+    /**
+     * Called on the reloading thread after the new config is visible
+     */
+    public interface Listener {
+        /**
+         * @param previous value before the reload, null if there was none
+         * @param current  value after the reload, null if there is none
+         */
+        void changed(@NotNull String path, @Nullable JsonNode previous, @Nullable JsonNode current);
+    }
+}
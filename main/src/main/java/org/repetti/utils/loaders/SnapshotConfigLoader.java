@@ -0,0 +1,420 @@
+package org.repetti.utils.loaders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.JsonHelper;
+import org.repetti.utils.UtilsException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable copy of another config, every getter is a single lookup in an open addressing table.
+ * <p/>
+ * When the snapshot is taken every value is read from the source once with {@link ConfigLoader#findValue(String)}
+ * and stored as it is: structured values as a copy of the JSON node, text values (properties, multivalued maps) as
+ * the string. Getters derive their answer from the stored value, conversions (numbers, JSON parsed from text, nested
+ * configs) are done on first use and kept. Nodes are read as in {@link JsonConfigLoader}, text as in
+ * {@link PropertyConfigLoader}; default values of the safe getters are returned whenever the key is missing.
+ * <p/>
+ * Safe getters and find* never throw or log. Other getters report misses with stackless exceptions. Nested configs
+ * (getConfig/getConfigs) are snapshots themselves and are returned as the same instances every time.
+ * <p/>
+ * Later changes of the source are not visible, take a new snapshot instead. Instances are thread safe.
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class SnapshotConfigLoader extends ConfigLoader {
+    /**
+     * Derived value which doesn't apply to the stored one
+     */
+    private static final Object NONE = new Object();
+
+    private final String[] keys;
+    private final Entry[] entries;
+    private final int mask;
+    private final Set<String> names;
+    private final Set<String> fieldNames;
+    private final String source;
+
+    /**
+     * Use {@link ConfigLoader#snapshot()}
+     */
+    public SnapshotConfigLoader(@NotNull ConfigLoader source) {
+        this(source.getFieldNames().size(), source.getClass().getSimpleName());
+        for (String key : source.getFieldNames()) {
+            if (key != null) {
+                final Object value = source.findValue(key);
+                put(key, value instanceof JsonNode ? ((JsonNode) value).deepCopy() : value);
+            }
+        }
+    }
+
+    /**
+     * Nested config, the node is already a copy
+     */
+    private SnapshotConfigLoader(@NotNull ObjectNode node) {
+        this(node.size(), "nested");
+        final Iterator<Map.Entry<String, JsonNode>> i = node.fields();
+        while (i.hasNext()) {
+            final Map.Entry<String, JsonNode> e = i.next();
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    private SnapshotConfigLoader(int size, String source) {
+        int capacity = 2;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new String[capacity];
+        this.entries = new Entry[capacity];
+        this.mask = capacity - 1;
+        this.names = new LinkedHashSet<String>();
+        this.fieldNames = Collections.unmodifiableSet(names);
+        this.source = source;
+    }
+
+    private void put(String key, Object value) {
+        if (!names.add(key)) {
+            return;
+        }
+        int i = index(key);
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        entries[i] = new Entry(value);
+    }
+
+    private int index(String key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @return entry of the key or null
+     */
+    @Nullable
+    private Entry find(String key) {
+        if (key == null) {
+            return null;
+        }
+        int i = index(key);
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k.equals(key)) {
+                return entries[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    @NotNull
+    private Entry get(String key) throws UtilsException {
+        final Entry e = find(key);
+        if (e == null) {
+            throw getException(ExceptionType.NOT_FOUND, key);
+        }
+        return e;
+    }
+
+    @Override
+    public ConfigLoader snapshot() {
+        return this;
+    }
+
+    @Override
+    public Object findValue(String key) {
+        final Entry e = find(key);
+        return e == null ? null : e.node != null ? e.node : e.text;
+    }
+
+    @Override
+    public boolean has(String key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public boolean isNull(String key, boolean throwException) throws UtilsException {
+        final Entry e = throwException ? get(key) : find(key);
+        return e == null || (e.node != null ? e.node.isNull() : e.text.isEmpty());
+    }
+
+    @Override
+    public boolean isString(String key, boolean throwException) throws UtilsException {
+        final Entry e = throwException ? get(key) : find(key);
+        return e != null && (e.node != null ? e.node.isTextual() : !e.text.isEmpty());
+    }
+
+    @Override
+    public String getString(String key) throws UtilsException {
+        return get(key).string();
+    }
+
+    @Override
+    public String getStringSafe(String key) {
+        final Entry e = find(key);
+        return e == null ? null : e.string();
+    }
+
+    @Override
+    public List<String> getStrings(String key) throws UtilsException {
+        return get(key).strings();
+    }
+
+    @Override
+    public int getInteger(String key) throws UtilsException {
+        final Integer ret = get(key).number();
+        if (ret == null) {
+            throw getException(ExceptionType.CAST, key + " is not an integer");
+        }
+        return ret;
+    }
+
+    @Override
+    public int getIntegerSafe(String key, int defaultValue) {
+        final Integer ret = findInteger(key);
+        return ret == null ? defaultValue : ret;
+    }
+
+    @Override
+    public Integer findInteger(String key) {
+        final Entry e = find(key);
+        return e == null ? null : e.number();
+    }
+
+    @Override
+    public boolean getBoolean(String key) throws UtilsException {
+        final Entry e = get(key);
+        if (e.node == null) {
+            return Boolean.parseBoolean(e.text);
+        }
+        if (!e.node.isBoolean()) {
+            throw getException(ExceptionType.CAST, key + " is not boolean");
+        }
+        return e.node.booleanValue();
+    }
+
+    @Override
+    public boolean getBooleanSafe(String key, boolean defaultValue) {
+        final Entry e = find(key);
+        return e == null ? defaultValue : e.bool();
+    }
+
+    @Override
+    public Boolean findBoolean(String key) {
+        final Entry e = find(key);
+        return e == null ? null : e.bool();
+    }
+
+    @Override
+    public JsonNode getJson(String key, boolean throwException) throws UtilsException {
+        final Entry e = throwException ? get(key) : find(key);
+        return e == null ? NullNode.getInstance() : e.json(key);
+    }
+
+    @Override
+    public ConfigLoader getConfig(String key) throws UtilsException {
+        final ConfigLoader ret = get(key).config(key);
+        if (ret == null) {
+            throw getException(ExceptionType.CAST, key + " is not an object");
+        }
+        return ret;
+    }
+
+    @Override
+    public List<ConfigLoader> getConfigs(String key, boolean throwException) throws UtilsException {
+        final Entry e = throwException ? get(key) : find(key);
+        if (e == null) {
+            return null;
+        }
+        final List<ConfigLoader> ret;
+        try {
+            ret = e.configs(key);
+        } catch (UtilsException ex) {
+            if (throwException) {
+                throw ex;
+            }
+            return null;
+        }
+        if (ret == null && throwException) {
+            throw getException(ExceptionType.CAST, key + " is not an array of objects");
+        }
+        return ret;
+    }
+
+    @Override
+    public Set<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotConfigLoader{" + source + ", " + fieldNames.size() + " keys}";
+    }
+
+    /**
+     * Stored value of a key and the values derived from it, {@link #NONE} marks a conversion which doesn't apply
+     */
+    private static class Entry {
+        /**
+         * Structured value, null for text
+         */
+        private final JsonNode node;
+        private final String text;
+        private volatile Object number;
+        /**
+         * Node parsed from the text or the parsing failure
+         */
+        private volatile Object json;
+        private volatile Object config;
+        private volatile Object configs;
+        private volatile List<String> strings;
+
+        private Entry(@Nullable Object value) {
+            if (value == null) {
+                this.node = NullNode.getInstance();
+                this.text = null;
+            } else if (value instanceof JsonNode) {
+                this.node = (JsonNode) value;
+                this.text = null;
+            } else {
+                this.node = null;
+                this.text = value.toString();
+            }
+        }
+
+        private String string() {
+            return node == null ? text : node.isNull() ? null : node.asText();
+        }
+
+        private boolean bool() {
+            return node == null ? Boolean.parseBoolean(text) : !node.isNull() && node.asBoolean();
+        }
+
+        @Nullable
+        private Integer number() {
+            Object ret = number;
+            if (ret == null) {
+                ret = NONE;
+                if (node == null) {
+                    try {
+                        ret = Integer.parseInt(text);
+                    } catch (NumberFormatException ignored) {
+                        // not a number, kept as NONE
+                    }
+                } else if (node.isNumber()) {
+                    ret = node.asInt();
+                }
+                number = ret;
+            }
+            return ret == NONE ? null : (Integer) ret;
+        }
+
+        private List<String> strings() {
+            List<String> ret = strings;
+            if (ret == null) {
+                if (node == null) {
+                    ret = Collections.singletonList(text);
+                } else {
+                    final List<String> tmp = new ArrayList<String>(node.size());
+                    for (JsonNode j : node) {
+                        tmp.add(j.asText());
+                    }
+                    ret = Collections.unmodifiableList(tmp);
+                }
+                strings = ret;
+            }
+            return ret;
+        }
+
+        private JsonNode json(String key) throws UtilsException {
+            if (node != null) {
+                return node;
+            }
+            Object ret = json;
+            if (ret == null) {
+                try {
+                    ret = JsonHelper.mapper.readTree(text);
+                } catch (IOException e) {
+                    ret = e;
+                }
+                if (ret == null) {
+                    // empty text
+                    ret = NONE;
+                }
+                json = ret;
+            }
+            if (ret instanceof IOException) {
+                throw getException(ExceptionType.CAST, key + " is not JSON", (IOException) ret);
+            }
+            return ret == NONE ? null : (JsonNode) ret;
+        }
+
+        /**
+         * @return nested snapshot or null if the value is not an object
+         */
+        @Nullable
+        private ConfigLoader config(String key) throws UtilsException {
+            Object ret = config;
+            if (ret == null) {
+                synchronized (this) {
+                    ret = config;
+                    if (ret == null) {
+                        final JsonNode j = json(key);
+                        ret = j != null && j.isObject() ? new SnapshotConfigLoader((ObjectNode) j) : NONE;
+                        config = ret;
+                    }
+                }
+            }
+            return ret == NONE ? null : (ConfigLoader) ret;
+        }
+
+        /**
+         * @return nested snapshots or null if the value is not an array of objects
+         */
+        @Nullable
+        @SuppressWarnings("unchecked")
+        private List<ConfigLoader> configs(String key) throws UtilsException {
+            Object ret = configs;
+            if (ret == null) {
+                synchronized (this) {
+                    ret = configs;
+                    if (ret == null) {
+                        ret = nested(json(key));
+                        configs = ret;
+                    }
+                }
+            }
+            return ret == NONE ? null : (List<ConfigLoader>) ret;
+        }
+
+        private static Object nested(@Nullable JsonNode j) {
+            if (j == null || !j.isArray()) {
+                return NONE;
+            }
+            final List<ConfigLoader> ret = new ArrayList<ConfigLoader>(j.size());
+            for (JsonNode o : j) {
+                if (!o.isObject()) {
+                    return NONE;
+                }
+                ret.add(new SnapshotConfigLoader((ObjectNode) o));
+            }
+            return Collections.unmodifiableList(ret);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.repetti.utils;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cache logic without a server: reads are simulated by begin/put/end as {@link MongoExecutor} does them.
+ * In this package because those methods are package private.
+ * <p/>
+ * Date: 18/10/26
+ *
+ * @author repetti
+ */
+public class MongoRecordCacheTest {
+    private static final String[] ALL = new String[0];
+    private static final String[] NAME = new String[]{"name"};
+
+    private static void read(MongoRecordCache cache, String id, String[] fields, DBObject record) {
+        cache.put(cache.begin(id), fields, record);
+    }
+
+    @Test
+    public void testReadRacingWithWrite() {
+        final MongoRecordCache cache = new MongoRecordCache(100, 60000);
+        final MongoRecordCache.Read a = cache.begin("a");
+        final MongoRecordCache.Read b = cache.begin("b");
+        cache.invalidate("a");
+        // the value read before the write is stale
+        cache.put(a, ALL, new BasicDBObject("_id", "a"));
+        assertNull(cache.get("a", ALL));
+        // reads of other ids are not affected
+        cache.put(b, ALL, new BasicDBObject("_id", "b"));
+        assertEquals("b", cache.get("b", ALL).get("_id"));
+        // a read begun after the write is stored
+        read(cache, "a", ALL, new BasicDBObject("_id", "a"));
+        assertEquals("a", cache.get("a", ALL).get("_id"));
+
+        // all entries of the id are dropped, other ids stay
+        read(cache, "a", NAME, new BasicDBObject("name", "x"));
+        cache.invalidate("a");
+        assertNull(cache.get("a", ALL));
+        assertNull(cache.get("a", NAME));
+        assertEquals(1, cache.size());
+
+        // ended reads store nothing, later puts of them are ignored
+        final MongoRecordCache.Read ended = cache.begin("c");
+        cache.end(ended);
+        cache.put(ended, ALL, new BasicDBObject("_id", "c"));
+        assertNull(cache.get("c", ALL));
+    }
+
+    @Test
+    public void testLru() {
+        final MongoRecordCache cache = new MongoRecordCache(2, 60000);
+        read(cache, "a", ALL, new BasicDBObject("_id", "a"));
+        read(cache, "b", ALL, new BasicDBObject("_id", "b"));
+        // a is used more recently than b
+        assertEquals("a", cache.get("a", ALL).get("_id"));
+        read(cache, "c", ALL, new BasicDBObject("_id", "c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("b", ALL));
+        assertEquals("a", cache.get("a", ALL).get("_id"));
+        assertEquals("c", cache.get("c", ALL).get("_id"));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // the evicted id is forgotten, writing it later changes nothing
+        cache.invalidate("b");
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testTtl() throws InterruptedException {
+        final MongoRecordCache cache = new MongoRecordCache(100, 20);
+        read(cache, "a", ALL, new BasicDBObject("_id", "a"));
+        assertEquals("a", cache.get("a", ALL).get("_id"));
+        Thread.sleep(50);
+        assertNull(cache.get("a", ALL));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        // expired entries are stored again by the next read
+        read(cache, "a", ALL, new BasicDBObject("_id", "a"));
+        assertEquals("a", cache.get("a", ALL).get("_id"));
+    }
+
+    @Test
+    public void testNotFound() {
+        final MongoRecordCache cache = new MongoRecordCache(100, 60000);
+        read(cache, "a", ALL, null);
+        final DBObject cached = cache.get("a", ALL);
+        assertTrue(MongoRecordCache.isNotFound(cached));
+        assertEquals(1, cache.getHits());
+        // other fields of the same id are separate entries
+        assertNull(cache.get("a", NAME));
+        cache.invalidate("a");
+        assertNull(cache.get("a", ALL));
+        assertFalse(MongoRecordCache.isNotFound(new BasicDBObject()));
+    }
+
+    @Test
+    public void testClearWhileReading() {
+        final MongoRecordCache cache = new MongoRecordCache(100, 60000);
+        read(cache, "a", ALL, new BasicDBObject("_id", "a"));
+        final MongoRecordCache.Read b = cache.begin("b");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a", ALL));
+        // the read began before the clear
+        cache.put(b, ALL, new BasicDBObject("_id", "b"));
+        assertNull(cache.get("b", ALL));
+        read(cache, "b", ALL, new BasicDBObject("_id", "b"));
+        assertEquals("b", cache.get("b", ALL).get("_id"));
+    }
+
+    @Test
+    public void testCopies() {
+        final MongoRecordCache cache = new MongoRecordCache(100, 60000);
+        final BasicDBList list = new BasicDBList();
+        list.add(new BasicDBObject("n", 1));
+        final Date date = new Date(1000);
+        final byte[] bytes = new byte[]{1};
+        final BasicDBObject record = new BasicDBObject("_id", "a").append("nested", new BasicDBObject("n", 1))
+                .append("list", list).append("date", date).append("bytes", bytes);
+        read(cache, "a", ALL, record);
+
+        // changes of the stored record are not seen
+        ((BasicDBObject) record.get("nested")).put("n", 2);
+        ((BasicDBObject) list.get(0)).put("n", 2);
+        date.setTime(2000);
+        bytes[0] = 2;
+        record.put("added", true);
+        DBObject cached = cache.get("a", ALL);
+        assertEquals(1, ((DBObject) cached.get("nested")).get("n"));
+        assertEquals(1, ((DBObject) ((BasicDBList) cached.get("list")).get(0)).get("n"));
+        assertEquals(1000, ((Date) cached.get("date")).getTime());
+        assertEquals(1, ((byte[]) cached.get("bytes"))[0]);
+        assertFalse(cached.containsField("added"));
+
+        // neither are changes of returned records
+        ((DBObject) cached.get("nested")).put("n", 3);
+        ((Date) cached.get("date")).setTime(3000);
+        cached.put("added", true);
+        final DBObject again = cache.get("a", ALL);
+        assertNotSame(cached, again);
+        assertEquals(1, ((DBObject) again.get("nested")).get("n"));
+        assertEquals(1000, ((Date) again.get("date")).getTime());
+        assertFalse(again.containsField("added"));
+    }
+}
@@ -0,0 +1,71 @@
+package org.repetti.utils.task;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.repetti.utils.JsonHelper;
+import org.repetti.utils.UtilsException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Compares parse and serialize cost of textual and binary (Smile) JSON on the same document.
+ * <p/>
+ * Parameters: [size in MB, default 64] [rounds, default 10] [filename, default /tmp/binary-bench.json]
+ * <p/>
+ * Date: 17/10/26
+ */
+public class BinaryJsonBenchmark {
+    public static void main(String[] args) throws IOException, UtilsException {
+        final long size = (args.length > 0 ? Long.parseLong(args[0]) : 64L) * 1024 * 1024;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final File file = new File(args.length > 2 ? args[2] : "/tmp/binary-bench.json");
+        if (file.length() < size) {
+            JsonStreamFormatBenchmark.generate(file, size);
+        }
+        final byte[] text = Files.readAllBytes(file.toPath());
+        final JsonNode json = JsonHelper.parse(text);
+        final byte[] binary = JsonHelper.serializeBinary(json);
+        System.out.println("text " + text.length / 1024 + " KB, binary " + binary.length / 1024 + " KB");
+
+        // warm up
+        for (int i = 0; i < 2; i++) {
+            JsonHelper.parse(text);
+            JsonHelper.parseBinary(binary);
+            JsonHelper.mapper.writeValueAsBytes(json);
+            JsonHelper.serializeBinary(json);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JsonHelper.parse(text);
+        }
+        report("text parse", start, rounds, text.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JsonHelper.parseBinary(binary);
+        }
+        report("binary parse", start, rounds, text.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JsonHelper.mapper.writeValueAsBytes(json);
+        }
+        report("text serialize", start, rounds, text.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JsonHelper.serializeBinary(json);
+        }
+        report("binary serialize", start, rounds, text.length);
+    }
+
+    /**
+     * Throughput is reported relative to the size of the textual document for both formats
+     */
+    private static void report(String name, long start, int rounds, long bytes) {
+        final long ms = (System.nanoTime() - start) / 1000_000L;
+        System.out.println(name + ": " + ms / rounds + " ms per round, " + (bytes * rounds / 1024 / 1024 * 1000 / Math.max(ms, 1)) + " MB/s");
+    }
+}
@@ -0,0 +1,89 @@
+package org.repetti.utils.task;
+
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.UtilsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compares cost of looking up missing keys: the previous miss path (warning and exception with stack trace), the
+ * current one (debug logging, stackless exception), nullable and default value getters.
+ * <p/>
+ * Logging runs at the default info level, written to a temporary file instead of the console, so the cost of the
+ * warning is included.
+ * <p/>
+ * Parameters: [lookups, default 1000000]
+ * <p/>
+ * Date: 17/10/26
+ */
+public class ConfigMissBenchmark {
+    private static long sink;
+
+    public static void main(String[] args) throws UtilsException, IOException {
+        final File logFile = File.createTempFile("config-miss", ".log");
+        logFile.deleteOnExit();
+        System.setProperty("org.slf4j.simpleLogger.logFile", logFile.getPath());
+        final Logger log = LoggerFactory.getLogger(ConfigLoader.class);
+
+        final int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final ConfigLoader config = ConfigLoader.loadJsonString("{\"present\":1}");
+        final String[] keys = new String[64];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "missing" + i;
+        }
+
+        // first pass is a warm up
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean print = pass > 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                // previous getException: warning and exception with stack trace
+                final String key = keys[i & 63];
+                try {
+                    if (!config.has(key)) {
+                        final String text = new StringBuilder("[NOT_FOUND] ").append(key).append(" not found").toString();
+                        log.warn(text);
+                        throw new UtilsException(UtilsException.Type.PARAMETERS, text, null);
+                    }
+                } catch (UtilsException e) {
+                    sink += e.getMessage().length();
+                }
+            }
+            report("previous miss: warning, exception with stack trace", start, lookups, print);
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                try {
+                    sink += config.getInteger(keys[i & 63]);
+                } catch (UtilsException e) {
+                    sink += e.getMessage().length();
+                }
+            }
+            report("getInteger miss", start, lookups, print);
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                final Integer v = config.findInteger(keys[i & 63]);
+                sink += v == null ? 1 : v;
+            }
+            report("findInteger", start, lookups, print);
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                sink += config.getIntegerSafe(keys[i & 63], 1);
+            }
+            report("getIntegerSafe", start, lookups, print);
+        }
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    private static void report(String name, long start, int lookups, boolean print) {
+        if (print) {
+            System.out.println(name + ": " + (System.nanoTime() - start) / lookups + " ns/op");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.repetti.utils.task;
+
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.UtilsException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Compares getter cost of json and properties configs with their snapshots.
+ * <p/>
+ * Parameters: [number of keys, default 64] [lookups, default 10000000]
+ * <p/>
+ * Date: 17/10/26
+ */
+public class ConfigSnapshotBenchmark {
+    private static long sink;
+
+    public static void main(String[] args) throws IOException, UtilsException {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+
+        final StringBuilder json = new StringBuilder("{");
+        final Properties properties = new Properties();
+        for (int i = 0; i < size; i++) {
+            json.append("\"int").append(i).append("\":").append(i).append(',');
+            json.append("\"str").append(i).append("\":\"value").append(i).append("\",");
+            json.append("\"bool").append(i).append("\":").append(i % 2 == 0).append(',');
+            json.append("\"conf").append(i).append("\":{\"k\":").append(i).append("},");
+            properties.setProperty("int" + i, String.valueOf(i));
+            properties.setProperty("str" + i, "value" + i);
+            properties.setProperty("bool" + i, String.valueOf(i % 2 == 0));
+            properties.setProperty("conf" + i, "{\"k\":" + i + "}");
+        }
+        json.setCharAt(json.length() - 1, '}');
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        properties.store(out, null);
+
+        final ConfigLoader jsonConfig = ConfigLoader.loadJsonString(json.toString());
+        final ConfigLoader propertiesConfig = ConfigLoader.loadFile(new ByteArrayInputStream(out.toByteArray()), false);
+
+        long start = System.nanoTime();
+        final ConfigLoader jsonSnapshot = jsonConfig.snapshot();
+        System.out.println("json snapshot built in " + (System.nanoTime() - start) / 1000 + " us");
+        start = System.nanoTime();
+        final ConfigLoader propertiesSnapshot = propertiesConfig.snapshot();
+        System.out.println("properties snapshot built in " + (System.nanoTime() - start) / 1000 + " us");
+
+        final String[] ints = new String[size];
+        final String[] strs = new String[size];
+        final String[] bools = new String[size];
+        final String[] confs = new String[size];
+        for (int i = 0; i < size; i++) {
+            ints[i] = "int" + i;
+            strs[i] = "str" + i;
+            bools[i] = "bool" + i;
+            confs[i] = "conf" + i;
+        }
+
+        // first pass is a warm up
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean print = pass > 0;
+            run("json", jsonConfig, ints, strs, bools, confs, lookups, print);
+            run("json snapshot", jsonSnapshot, ints, strs, bools, confs, lookups, print);
+            run("properties", propertiesConfig, ints, strs, bools, confs, lookups, print);
+            run("properties snapshot", propertiesSnapshot, ints, strs, bools, confs, lookups, print);
+        }
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    private static void run(String name, ConfigLoader c, String[] ints, String[] strs, String[] bools, String[] confs,
+                            int lookups, boolean print) throws UtilsException {
+        final int n = ints.length;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            sink += c.getInteger(ints[i % n]);
+        }
+        report(name + " getInteger", start, lookups, print);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            sink += c.getString(strs[i % n]).length();
+        }
+        report(name + " getString", start, lookups, print);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            sink += c.getBoolean(bools[i % n]) ? 1 : 0;
+        }
+        report(name + " getBoolean", start, lookups, print);
+
+        // nested configs are parsed or wrapped on every call by the regular loaders, so fewer rounds
+        final int nested = lookups / 10;
+        start = System.nanoTime();
+        for (int i = 0; i < nested; i++) {
+            sink += c.getConfig(confs[i % n]).getInteger("k");
+        }
+        report(name + " getConfig", start, nested, print);
+    }
+
+    private static void report(String name, long start, int lookups, boolean print) {
+        if (print) {
+            System.out.println(name + ": " + (System.nanoTime() - start) / lookups + " ns/op");
+        }
+    }
+}
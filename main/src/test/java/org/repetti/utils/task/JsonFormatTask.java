@@ -6,6 +6,9 @@ import org.repetti.utils.ResourceHelper;
 import org.repetti.utils.UtilsException;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * Read the json file and write it back
@@ -13,14 +16,19 @@ import java.io.File;
  * Date: 20/05/15
  */
 public class JsonFormatTask {
-    public static void main(String[] args) throws UtilsException {
+    public static void main(String[] args) throws UtilsException, IOException {
         File f = new File("main/src/test/resources/data.json");
 //        String s = ResourceHelper.readFileAsString(f);
         JsonNode j = JsonHelper.parse(f);
-        String res = JsonHelper.printFormattedSorted(j);
-        System.out.println(res);
+        JsonHelper.printFormattedSorted(j, System.out);
 
-        ResourceHelper.writeFile(f, res);
+        // the tree is already in memory, so the file can be overwritten while streaming
+        OutputStream out = new FileOutputStream(f);
+        try {
+            JsonHelper.printFormattedSorted(j, out);
+        } finally {
+            out.close();
+        }
     }
 
     /**
@@ -0,0 +1,88 @@
+package org.repetti.utils.task;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.repetti.utils.JsonHelper;
+import org.repetti.utils.UtilsException;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generates a big json array and measures throughput of the token stream formatter (jh f).
+ * <p/>
+ * Parameters: [size in MB, default 2048] [filename, default /tmp/big.json]
+ * <p/>
+ * Date: 17/10/26
+ */
+public class JsonStreamFormatBenchmark {
+    public static void main(String[] args) throws IOException, UtilsException {
+        final long size = (args.length > 0 ? Long.parseLong(args[0]) : 2048L) * 1024 * 1024;
+        final File file = new File(args.length > 1 ? args[1] : "/tmp/big.json");
+
+        if (file.length() < size) {
+            long start = System.nanoTime();
+            generate(file, size);
+            System.out.println("Generated " + file.length() / 1024 / 1024 + " MB in " + ((System.nanoTime() - start) / 1000_000L) + " ms");
+        }
+
+        final CountingOutputStream out = new CountingOutputStream();
+        final long start = System.nanoTime();
+        JsonHelper.printFormatted(file, out);
+        final long ms = (System.nanoTime() - start) / 1000_000L;
+        final long usedMb = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024;
+
+        System.out.println("Formatted " + file.length() / 1024 / 1024 + " MB -> " + out.count / 1024 / 1024 + " MB in " + ms + " ms, "
+                + (file.length() / 1024 / 1024 * 1000 / Math.max(ms, 1)) + " MB/s, heap used " + usedMb + " MB");
+    }
+
+    static void generate(File file, long size) throws IOException {
+        final Random random = new Random(42);
+        final OutputStream stream = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+        try {
+            JsonGenerator g = JsonHelper.mapper.getFactory().createGenerator(stream, JsonEncoding.UTF8);
+            g.writeStartArray();
+            for (long i = 0; file.length() < size; i++) {
+                for (int k = 0; k < 1000; k++) {
+                    g.writeStartObject();
+                    g.writeNumberField("id", i * 1000 + k);
+                    g.writeStringField("name", "record-" + random.nextInt());
+                    g.writeNumberField("value", random.nextDouble());
+                    g.writeBooleanField("flag", random.nextBoolean());
+                    g.writeArrayFieldStart("tags");
+                    g.writeString("a" + random.nextInt(100));
+                    g.writeString("b" + random.nextInt(100));
+                    g.writeEndArray();
+                    g.writeObjectFieldStart("nested");
+                    g.writeNullField("empty");
+                    g.writeNumberField("level", k % 10);
+                    g.writeEndObject();
+                    g.writeEndObject();
+                }
+                g.flush();
+            }
+            g.writeEndArray();
+            g.close();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.repetti.utils.task;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.repetti.utils.JsonHelper;
+import org.repetti.utils.UtilsException;
+import org.repetti.utils.json.NodeConsumer;
+import org.repetti.utils.json.ParallelArrayParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how parsing of a big json array scales with the number of workers, sequential parse is the baseline.
+ * <p/>
+ * Parameters: [size in MB, default 512] [filename, default /tmp/big.json]
+ * <p/>
+ * Date: 17/10/26
+ */
+public class ParallelParseBenchmark {
+    public static void main(String[] args) throws IOException, UtilsException {
+        final long size = (args.length > 0 ? Long.parseLong(args[0]) : 512L) * 1024 * 1024;
+        final File file = new File(args.length > 1 ? args[1] : "/tmp/big.json");
+        if (file.length() < size) {
+            JsonStreamFormatBenchmark.generate(file, size);
+        }
+        final long mb = file.length() / 1024 / 1024;
+
+        long start = System.nanoTime();
+        final int count = JsonHelper.parse(file).size();
+        long ms = (System.nanoTime() - start) / 1000_000L;
+        System.out.println("sequential: " + count + " elements, " + mb + " MB in " + ms + " ms");
+        final long baseline = ms;
+
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        for (int workers = 1; workers <= cpus; workers *= 2) {
+            for (boolean ordered : new boolean[]{true, false}) {
+                final ForkJoinPool pool = new ForkJoinPool(workers);
+                final AtomicLong sum = new AtomicLong();
+                try {
+                    start = System.nanoTime();
+                    new ParallelArrayParser(JsonHelper.mapper, pool, ParallelArrayParser.DEFAULT_CHUNK_SIZE)
+                            .parse(file.toPath(), new NodeConsumer() {
+                                @Override
+                                public void accept(JsonNode node) {
+                                    sum.addAndGet(node.size());
+                                }
+                            }, ordered);
+                    ms = (System.nanoTime() - start) / 1000_000L;
+                } finally {
+                    pool.shutdown();
+                }
+                System.out.println(workers + " workers, " + (ordered ? "ordered" : "unordered") + ": " + ms + " ms, "
+                        + (mb * 1000 / Math.max(ms, 1)) + " MB/s, speedup " + String.format("%.2f", (double) baseline / Math.max(ms, 1)));
+            }
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package org.repetti.utils.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Test;
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.UtilsException;
+import org.repetti.utils.loaders.CompositeConfigLoader;
+import org.repetti.utils.loaders.ConfigBinder;
+import org.repetti.utils.loaders.MultivaluedConfigLoader;
+import org.repetti.utils.loaders.PropertyConfigLoader;
+import org.repetti.utils.loaders.ReloadingConfigLoader;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class ConfigLoaderTest {
+    private static final String JSON = "{\"s\":\"text\",\"i\":42,\"zero\":0,\"b\":true,\"n\":null,\"d\":1.5,"
+            + "\"list\":[\"a\",\"b\"],\"c\":{\"x\":\"y\",\"deep\":{\"z\":1}},\"cs\":[{\"k\":1},{\"k\":2}],\"bad\":[1,{}]}";
+    private static final String[] KEYS = {"s", "i", "zero", "b", "n", "d", "list", "c", "cs", "bad", "missing", "p",
+            "json", "m"};
+
+    @Test
+    public void testSnapshotJson() throws Exception {
+        assertSameAnswers(ConfigLoader.loadJsonString(JSON));
+        assertSameAnswers(ConfigLoader.loadJsonString(JSON).getConfig("c"));
+    }
+
+    @Test
+    public void testSnapshotProperties() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("s", "text");
+        p.setProperty("i", "42");
+        p.setProperty("b", "true");
+        p.setProperty("p", "");
+        p.setProperty("c", "{\"x\":\"y\"}");
+        p.setProperty("cs", "[{\"k\":1}]");
+        p.setProperty("json", "[1]");
+        assertSameAnswers(ConfigLoader.loadFile(new ByteArrayInputStream(toBytes(p)), false));
+    }
+
+    @Test
+    public void testSnapshotMap() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("s", "text");
+        map.put("i", 42);
+        map.put("b", false);
+        map.put("n", null);
+        map.put("list", Arrays.asList("a", "b"));
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("x", "y");
+        map.put("c", nested);
+        map.put("cs", Arrays.asList(nested, nested));
+        ConfigLoader source = ConfigLoader.loadMap(map);
+        // values are stored as JSON nodes: numbers read as booleans and containers as text the JSON way
+        assertSameAnswers(source, "i booleanSafe", "list string", "list stringSafe", "c string", "c stringSafe",
+                "cs string", "cs stringSafe", "cs strings");
+        assertTrue(source.snapshot().getBooleanSafe("i", false));
+        assertEquals("y", source.snapshot().getConfigs("cs", true).get(1).getString("x"));
+    }
+
+    @Test
+    public void testSnapshotMultivalued() throws Exception {
+        MultivaluedHashMap<String, String> map = new MultivaluedHashMap<String, String>();
+        map.add("s", "text");
+        map.add("i", "42");
+        map.add("b", "true");
+        map.add("m", "1");
+        map.add("m", "2");
+        ConfigLoader source = new MultivaluedConfigLoader(map);
+        // several values are stored as a JSON array
+        assertSameAnswers(source, "m stringSafe", "m intSafe", "m boolean");
+        assertEquals("", source.snapshot().getStringSafe("m"));
+        assertEquals(Arrays.asList("1", "2"), source.snapshot().getStrings("m"));
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("s", "before");
+        ConfigLoader source = ConfigLoader.loadFile(new ByteArrayInputStream(toBytes(p)), false);
+        ConfigLoader snapshot = source.snapshot();
+        assertTrue(snapshot == snapshot.snapshot());
+        assertEquals("before", snapshot.getString("s"));
+
+        ConfigLoader json = ConfigLoader.loadJsonString(JSON).snapshot();
+        assertTrue(json.getConfig("c") == json.getConfig("c"));
+        assertEquals(1, json.getConfig("c").getConfig("deep").getInteger("z"));
+        assertEquals(2, json.getConfigs("cs", true).get(1).getInteger("k"));
+        assertEquals(5, json.getIntegerSafe("s", 5));
+        try {
+            json.getInteger("missing");
+            fail();
+        } catch (UtilsException e) {
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        ConfigLoader json = ConfigLoader.loadJsonString(JSON);
+        assertEquals("text", json.findString("s"));
+        assertNull(json.findString("missing"));
+        assertEquals(Integer.valueOf(42), json.findInteger("i"));
+        assertEquals(Integer.valueOf(0), json.findInteger("zero"));
+        assertNull(json.findInteger("s"));
+        assertNull(json.findInteger("missing"));
+        assertEquals(Boolean.TRUE, json.findBoolean("b"));
+        assertNull(json.findBoolean("missing"));
+
+        Properties p = new Properties();
+        p.setProperty("min", String.valueOf(Integer.MIN_VALUE));
+        p.setProperty("b", "false");
+        ConfigLoader properties = new PropertyConfigLoader(p);
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), properties.findInteger("min"));
+        assertEquals(Boolean.FALSE, properties.findBoolean("b"));
+        assertNull(properties.findBoolean("missing"));
+        assertEquals(Integer.valueOf(42), json.snapshot().findInteger("i"));
+        try {
+            properties.getInteger("missing");
+            fail();
+        } catch (UtilsException e) {
+            assertEquals(0, e.getStackTrace().length);
+        }
+        // real failures keep their trace and cause
+        try {
+            ConfigLoader.loadJsonString("{\"a\":");
+            fail();
+        } catch (UtilsException e) {
+            assertTrue(e.getStackTrace().length > 0);
+            assertTrue(e.getCause() != null);
+        }
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("i", 7);
+        map.put("b", true);
+        map.put("n", null);
+        ConfigLoader m = ConfigLoader.loadMap(map);
+        assertEquals(Integer.valueOf(7), m.findInteger("i"));
+        assertNull(m.findInteger("b"));
+        assertEquals(Boolean.TRUE, m.findBoolean("b"));
+        assertEquals(Boolean.FALSE, m.findBoolean("n"));
+        assertNull(m.findBoolean("missing"));
+        ConfigLoader composite = new CompositeConfigLoader(m, properties);
+        assertEquals(Integer.valueOf(7), composite.findInteger("i"));
+        assertEquals(Boolean.FALSE, composite.findBoolean("b"));
+        assertNull(composite.findInteger("missing"));
+    }
+
+    @Test
+    public void testBinder() throws Exception {
+        ConfigLoader config = ConfigLoader.loadJsonString("{\"name\":\"main\",\"port\":8080,\"ratio\":0.5,"
+                + "\"mode\":\"FAST\",\"db\":{\"host\":\"h\",\"port\":1},\"tags\":[\"a\",\"b\"],"
+                + "\"replicas\":[{\"host\":\"r1\",\"port\":2},{\"host\":\"r2\",\"port\":3}]}");
+        Settings s = ConfigBinder.bind(config, Settings.class);
+        assertEquals("main", s.name);
+        assertEquals(8080, s.port);
+        assertEquals(0.5, s.ratio, 0);
+        assertEquals(Mode.FAST, s.mode);
+        assertEquals("h", s.db.host());
+        assertEquals(1, s.db.getPort());
+        assertEquals(Arrays.asList("a", "b"), s.tags);
+        assertEquals("r2", s.getReplicas().get(1).host());
+        assertEquals(7, s.timeout);
+
+        List<Db> all = ConfigBinder.bindAll(config.getConfigs("replicas", true), Db.class);
+        assertEquals(3, all.get(1).getPort());
+
+        ConfigLoader broken = ConfigLoader.loadJsonString("{\"name\":\"x\",\"mode\":\"SLOW\",\"db\":{\"port\":1},"
+                + "\"tags\":[],\"replicas\":[]}");
+        try {
+            ConfigBinder.bind(broken, Settings.class);
+            fail();
+        } catch (UtilsException e) {
+            // every problem is reported at once
+            assertTrue(e.getMessage(), e.getMessage().contains("port is missing"));
+            assertTrue(e.getMessage(), e.getMessage().contains("ratio is missing"));
+            assertTrue(e.getMessage(), e.getMessage().contains("mode: "));
+            assertTrue(e.getMessage(), e.getMessage().contains("db.host is missing"));
+        }
+    }
+
+    public enum Mode {
+        FAST, SAFE
+    }
+
+    public interface Db {
+        String host();
+
+        int getPort();
+    }
+
+    public static class Settings {
+        public String name;
+        public int port;
+        public double ratio;
+        public Mode mode;
+        public Db db;
+        public List<String> tags;
+        @ConfigBinder.Key(optional = true)
+        public int timeout = 7;
+        private List<Db> replicas;
+
+        public List<Db> getReplicas() {
+            return replicas;
+        }
+
+        public void setReplicas(List<Db> replicas) {
+            this.replicas = replicas;
+        }
+    }
+
+    @Test
+    public void testPropertiesCache() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("c", "{\"x\":1}");
+        p.setProperty("cs", "[{\"k\":1}]");
+        ConfigLoader config = new PropertyConfigLoader(p);
+        assertTrue(config.getConfig("c") == config.getConfig("c"));
+        assertTrue(config.getJson("c", true) == config.getJson("c", true));
+        assertTrue(config.getConfigs("cs", true) == config.getConfigs("cs", true));
+
+        p.setProperty("c", "{\"x\":2}");
+        p.setProperty("cs", "[{\"k\":1},{\"k\":2}]");
+        assertEquals(2, config.getConfig("c").getInteger("x"));
+        assertEquals(2, config.getJson("c", true).get("x").asInt());
+        assertEquals(2, config.getConfigs("cs", true).size());
+
+        p.remove("c");
+        try {
+            config.getConfig("c");
+            fail();
+        } catch (UtilsException e) {
+            assertEquals(UtilsException.Type.PARAMETERS, e.type);
+        }
+    }
+
+    @Test
+    public void testComposite() throws Exception {
+        ConfigLoader defaults = ConfigLoader.loadJsonString("{\"db\":{\"host\":\"h\",\"port\":1},\"name\":\"x\",\"n\":5}");
+        Properties p = new Properties();
+        p.setProperty("db", "{\"port\":2}");
+        ConfigLoader env = new PropertyConfigLoader(p);
+        ConfigLoader args = ConfigLoader.loadArgs("-", "-name", "y");
+        CompositeConfigLoader config = new CompositeConfigLoader(defaults, env, args);
+
+        assertEquals("y", config.getString("name"));
+        assertEquals(5, config.getInteger("n"));
+        assertTrue(config.getOwner("name") == args);
+        assertEquals(new HashSet<String>(Arrays.asList("db", "name", "n")), config.getFieldNames());
+        assertEquals(2, config.getConfig("db").getInteger("port"));
+        assertEquals("h", config.getConfig("db").getString("host"));
+        assertTrue(config.getConfig("db") == config.getConfig("db"));
+
+        assertEquals(3, config.getIntegerSafe("missing", 3));
+        assertNull(config.getStringSafe("missing"));
+        assertTrue(config.isNull("missing", false));
+        assertNull(config.getConfigs("missing", false));
+        try {
+            config.getString("missing");
+            fail();
+        } catch (UtilsException e) {
+            assertEquals(UtilsException.Type.PARAMETERS, e.type);
+        }
+
+        // a value which is not a config hides configs of lower layers
+        p.setProperty("db", "plain");
+        ConfigLoader shadowed = new CompositeConfigLoader(defaults, new PropertyConfigLoader(p),
+                ConfigLoader.loadJsonString("{\"db\":{\"port\":3}}"));
+        assertEquals(3, shadowed.getConfig("db").getInteger("port"));
+        assertTrue(!shadowed.getConfig("db").has("host"));
+    }
+
+    @Test
+    public void testReloading() throws Exception {
+        final Path file = Files.createTempFile("reloading", ".json");
+        Files.write(file, "{\"a\":{\"x\":1},\"b\":\"text\"}".getBytes("UTF-8"));
+        final ReloadingConfigLoader config = new ReloadingConfigLoader(file, true, 50);
+        try {
+            final ConfigLoader before = config.getCurrent();
+            final BlockingQueue<String> changed = new LinkedBlockingQueue<String>();
+            final ReloadingConfigLoader.Listener listener = new ReloadingConfigLoader.Listener() {
+                @Override
+                public void changed(@NotNull String path, @Nullable JsonNode previous, @Nullable JsonNode current) {
+                    changed.add(path + "=" + current);
+                }
+            };
+            config.addListener("a.x", listener);
+            config.addListener("b", listener);
+            assertEquals(1, config.getConfig("a").getInteger("x"));
+
+            Files.write(file, "{\"a\":{\"x\":2},\"b\":\"text\"}".getBytes("UTF-8"));
+            assertEquals("a.x=2", changed.poll(10, TimeUnit.SECONDS));
+            assertEquals(2, config.getConfig("a").getInteger("x"));
+            assertEquals(1, before.getConfig("a").getInteger("x"));
+
+            // broken content keeps the previous config
+            Files.write(file, "{\"a\":".getBytes("UTF-8"));
+            try {
+                config.reload();
+                fail();
+            } catch (UtilsException e) {
+                assertEquals(2, config.getConfig("a").getInteger("x"));
+            }
+
+            Files.write(file, "{\"a\":{\"x\":2}}".getBytes("UTF-8"));
+            assertEquals("b=null", changed.poll(10, TimeUnit.SECONDS));
+            assertNull(changed.poll(200, TimeUnit.MILLISECONDS));
+            assertTrue(config.getReloads() >= 2);
+        } finally {
+            config.close();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testReloadingDottedKeys() throws Exception {
+        final Path file = Files.createTempFile("reloading", ".properties");
+        Files.write(file, "auth.db=one\nuse.single.host=true\n".getBytes("UTF-8"));
+        final ReloadingConfigLoader config = new ReloadingConfigLoader(file, false, 50);
+        try {
+            final BlockingQueue<String> changed = new LinkedBlockingQueue<String>();
+            config.addListener("auth.db", new ReloadingConfigLoader.Listener() {
+                @Override
+                public void changed(@NotNull String path, @Nullable JsonNode previous, @Nullable JsonNode current) {
+                    changed.add(path + "=" + (current == null ? null : current.asText()));
+                }
+            });
+            Files.write(file, "auth.db=two\nuse.single.host=true\n".getBytes("UTF-8"));
+            config.reload();
+            assertEquals("auth.db=two", changed.poll(10, TimeUnit.SECONDS));
+            assertEquals("two", config.getString("auth.db"));
+        } finally {
+            config.close();
+            Files.delete(file);
+        }
+    }
+
+    private static byte[] toBytes(Properties p) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        p.store(out, null);
+        return out.toByteArray();
+    }
+
+    /**
+     * Snapshot has to answer every getter the source answers with a value the same way, failures of the source are
+     * not compared: the snapshot converts its stored values the same way for every source
+     *
+     * @param different answers ("key getter") which differ on purpose
+     */
+    private static void assertSameAnswers(ConfigLoader source, String... different) throws Exception {
+        final List<String> skipped = Arrays.asList(different);
+        ConfigLoader snapshot = source.snapshot();
+        assertEquals(source.getFieldNames(), snapshot.getFieldNames());
+        for (String key : KEYS) {
+            final Map<String, String> expected = describe(source, key);
+            final Map<String, String> actual = describe(snapshot, key);
+            for (Map.Entry<String, String> e : expected.entrySet()) {
+                if (!"!".equals(e.getValue()) && !skipped.contains(key + " " + e.getKey())) {
+                    assertEquals(key + " " + e.getKey(), e.getValue(), actual.get(e.getKey()));
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> describe(ConfigLoader c, String key) {
+        final Map<String, String> ret = new LinkedHashMap<String, String>();
+        ret.put("has", String.valueOf(c.has(key)));
+        try {
+            ret.put("isNull", String.valueOf(c.isNull(key, false)));
+        } catch (UtilsException e) {
+            ret.put("isNull", "!");
+        }
+        try {
+            ret.put("isString", String.valueOf(c.isString(key, false)));
+        } catch (UtilsException e) {
+            ret.put("isString", "!");
+        }
+        try {
+            ret.put("string", c.getString(key));
+        } catch (UtilsException e) {
+            ret.put("string", "!");
+        }
+        ret.put("stringSafe", c.getStringSafe(key));
+        try {
+            ret.put("int", String.valueOf(c.getInteger(key)));
+        } catch (UtilsException e) {
+            ret.put("int", "!");
+        }
+        ret.put("intSafe", c.getIntegerSafe(key, -1) + "/" + c.getIntegerSafe(key, 7));
+        try {
+            ret.put("boolean", String.valueOf(c.getBoolean(key)));
+        } catch (UtilsException e) {
+            ret.put("boolean", "!");
+        }
+        if (c.has(key)) {
+            ret.put("booleanSafe", c.getBooleanSafe(key, false) + "/" + c.getBooleanSafe(key, true));
+        }
+        try {
+            ret.put("strings", String.valueOf(c.getStrings(key)));
+        } catch (UtilsException e) {
+            ret.put("strings", "!");
+        }
+        try {
+            ret.put("json", String.valueOf(c.getJson(key, true)));
+        } catch (Exception e) {
+            ret.put("json", "!");
+        }
+        try {
+            final ConfigLoader config = c.getConfig(key);
+            // a null config is a failure as well
+            ret.put("config", config == null ? "!" : String.valueOf(new TreeSet<String>(config.getFieldNames())));
+        } catch (UtilsException e) {
+            ret.put("config", "!");
+        }
+        try {
+            final List<ConfigLoader> configs = c.getConfigs(key, false);
+            ret.put("configs", configs == null ? null : String.valueOf(configs.size()));
+        } catch (UtilsException e) {
+            ret.put("configs", "!");
+        }
+        return ret;
+    }
+}
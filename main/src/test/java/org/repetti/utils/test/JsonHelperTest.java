@@ -0,0 +1,676 @@
+package org.repetti.utils.test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.repetti.utils.ConfigLoader;
+import org.repetti.utils.JsonHelper;
+import org.repetti.utils.ResourceHelper;
+import org.repetti.utils.UtilsException;
+import org.repetti.utils.exceptions.ParseException;
+import org.repetti.utils.json.IndexedArrayView;
+import org.repetti.utils.json.JsonDiff;
+import org.repetti.utils.json.JsonEscaper;
+import org.repetti.utils.json.JsonHash;
+import org.repetti.utils.json.JsonInterner;
+import org.repetti.utils.json.JsonProfile;
+import org.repetti.utils.json.NdJsonReader;
+import org.repetti.utils.json.NdJsonWriter;
+import org.repetti.utils.json.NodeConsumer;
+import org.repetti.utils.json.ParallelArrayParser;
+import org.repetti.utils.json.SortedStreamFormatter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Date: 17/10/26
+ */
+public class JsonHelperTest {
+    public static final String JSON = "{\"b\":[1,-2,{\"x\":\"q\\\"\\u0001\\u00e9\\n/\",\"a\":[]},{}],\"a\":null," +
+            "\"c\":{\"z\":[[true,false]],\"y\":1.5e10,\"l\":12345678901,\"bi\":123456789012345678901234567890}," +
+            "\"\\t\":\"\",\"d\":0.1}";
+
+    @Test
+    public void testPrintFormattedWriter() throws Exception {
+        JsonNode j = JsonHelper.parse(JSON);
+        StringWriter w = new StringWriter();
+        JsonHelper.printFormatted(j, w);
+        assertEquals(JsonHelper.printFormatted(j), w.toString());
+
+        w = new StringWriter();
+        JsonHelper.printFormattedSorted(j, w);
+        assertEquals(JsonHelper.printFormattedSorted(j), w.toString());
+    }
+
+    @Test
+    public void testPrintFormattedStream() throws Exception {
+        final String expected = JsonHelper.printFormatted(JsonHelper.parse(JSON));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonHelper.printFormatted(new ByteArrayInputStream(JSON.getBytes("UTF-8")), out);
+        assertEquals(expected, out.toString("UTF-8"));
+
+        out = new ByteArrayOutputStream();
+        JsonHelper.printFormatted(new ByteArrayInputStream((JSON + "\n[]\n" + JSON).getBytes("UTF-8")), out);
+        assertEquals(expected + "\n[]\n" + expected, out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testPrintFormattedSortedStream() throws Exception {
+        final StringBuilder wide = new StringBuilder("{");
+        for (int i = 0; i < 1000; i++) {
+            wide.append(i == 0 ? "" : ",").append("\"k").append((i * 7919) % 1000).append("\":").append(JSON);
+        }
+        wide.append("}");
+        for (String json : new String[]{JSON, "[]", "[" + JSON + "," + JSON + "]", wide.toString()}) {
+            final String expected = JsonHelper.printFormattedSorted(JsonHelper.parse(json));
+            // small buffer makes every object with more than a couple of fields spill to temporary files
+            for (int maxBuffered : new int[]{SortedStreamFormatter.DEFAULT_MAX_BUFFERED_CHARS, 16}) {
+                StringBuilder sb = new StringBuilder();
+                JsonParser parser = JsonHelper.mapper.getFactory().createParser(json);
+                new SortedStreamFormatter(sb, 2, maxBuffered).format(parser);
+                assertEquals(expected, sb.toString());
+            }
+        }
+
+        // streamed objects keep duplicate names, equal keys must not make sorting quadratic
+        final StringBuilder duplicates = new StringBuilder("{");
+        for (int i = 0; i < 100000; i++) {
+            duplicates.append(i == 0 ? "" : ",").append(i % 3 == 0 ? "\"b\":" : "\"a\":").append(i % 3);
+        }
+        duplicates.append("}");
+        StringBuilder sb = new StringBuilder();
+        new SortedStreamFormatter(sb, 0).format(JsonHelper.mapper.getFactory().createParser(duplicates.toString()));
+        final String text = sb.toString();
+        assertTrue(text.lastIndexOf("\"a\"") < text.indexOf("\"b\""));
+        assertEquals(100000, text.split("\n").length - 2);
+    }
+
+    @Test
+    public void testPrintFormattedSortedStreamNested() throws Exception {
+        final StringBuilder wide = new StringBuilder("{");
+        final StringBuilder items = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            wide.append(i == 0 ? "" : ",").append("\"k").append((i * 7919) % 1000).append("\":").append(JSON);
+            items.append(i == 0 ? "" : ",").append(JSON);
+        }
+        wide.append("}");
+        items.append("]");
+        final File tmp = new File(System.getProperty("java.io.tmpdir"));
+        final int tmpFiles = countSortFiles(tmp);
+        // wide values nested under a single field and under one of several fields go through the value spool
+        for (String json : new String[]{"{\"data\":" + wide + "}", "{\"z\":1,\"data\":" + wide + ",\"a\":" + items + "}",
+                "{\"items\":" + items + "}", "[{\"b\":" + wide + ",\"a\":{\"c\":" + wide + "}}]"}) {
+            final String expected = JsonHelper.printFormattedSorted(JsonHelper.parse(json));
+            for (int maxBuffered : new int[]{64, 4096}) {
+                StringBuilder sb = new StringBuilder();
+                new SortedStreamFormatter(sb, 2, maxBuffered).format(JsonHelper.mapper.getFactory().createParser(json));
+                assertEquals(expected, sb.toString());
+            }
+        }
+        assertEquals(tmpFiles, countSortFiles(tmp));
+
+        // temporary files are deleted when formatting fails
+        try {
+            new SortedStreamFormatter(new StringBuilder(), 2, 64)
+                    .format(JsonHelper.mapper.getFactory().createParser("{\"a\":{\"b\":" + wide + ",\"c\":[1,}}"));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(tmpFiles, countSortFiles(tmp));
+    }
+
+    private static int countSortFiles(File dir) {
+        final String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("json-sort");
+            }
+        });
+        return names == null ? 0 : names.length;
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        JsonNode a = JsonHelper.parse(JSON);
+        assertEquals(0, JsonHelper.diff(a, JsonHelper.parse(JSON)).size());
+        assertEquals("are equal", JsonHelper.compareJson(a, JsonHelper.parse(JSON)));
+
+        assertEquals(JsonHelper.parse("[{\"op\":\"replace\",\"path\":\"/a~1b/1\",\"value\":3}," +
+                        "{\"op\":\"remove\",\"path\":\"/c\"},{\"op\":\"add\",\"path\":\"/d~0\",\"value\":{}}]"),
+                JsonHelper.diff(JsonHelper.parse("{\"a/b\":[1,2],\"c\":true}"), JsonHelper.parse("{\"a/b\":[1,3],\"d~\":{}}")));
+
+        // insertion in the middle of an array is a single operation
+        assertEquals(JsonHelper.parse("[{\"op\":\"add\",\"path\":\"/2\",\"value\":{\"x\":1}}]"),
+                JsonHelper.diff(JsonHelper.parse("[1,2,3,4]"), JsonHelper.parse("[1,2,{\"x\":1},3,4]")));
+        assertEquals(JsonHelper.parse("[{\"op\":\"replace\",\"path\":\"/1/x\",\"value\":2},{\"op\":\"remove\",\"path\":\"/0\"}]"),
+                JsonHelper.diff(JsonHelper.parse("[0,{\"x\":1},5]"), JsonHelper.parse("[{\"x\":2},5]")));
+        assertEquals(JsonHelper.parse("[{\"op\":\"replace\",\"path\":\"\",\"value\":[]}]"),
+                JsonHelper.diff(JsonHelper.parse("{}"), JsonHelper.parse("[]")));
+
+        // equal hashes are confirmed, every subtree collides here
+        final JsonDiff colliding = new JsonDiff(new JsonHash() {
+            @Override
+            public long hash(@NotNull JsonNode node) {
+                return 0;
+            }
+        });
+        assertEquals(JsonHelper.parse("[{\"op\":\"replace\",\"path\":\"/a\",\"value\":2}]"),
+                colliding.compare(JsonHelper.parse("{\"a\":1}"), JsonHelper.parse("{\"a\":2}")));
+        assertEquals(JsonHelper.parse("[{\"op\":\"replace\",\"path\":\"/1\",\"value\":\"c\"}]"),
+                colliding.compare(JsonHelper.parse("[\"a\",\"b\"]"), JsonHelper.parse("[\"a\",\"c\"]")));
+        assertEquals(0, colliding.compare(JsonHelper.parse(JSON), JsonHelper.parse(JSON)).size());
+    }
+
+    @Test
+    public void testPatch() throws Exception {
+        JsonNode target = JsonHelper.parse("{\"a\":{\"b\":[1,2,3],\"c\":\"x\"},\"d\":1}");
+        JsonNode patch = JsonHelper.parse("[{\"op\":\"add\",\"path\":\"/a/b/-\",\"value\":4}," +
+                "{\"op\":\"remove\",\"path\":\"/a/b/0\"},{\"op\":\"replace\",\"path\":\"/a/c\",\"value\":{}}," +
+                "{\"op\":\"add\",\"path\":\"/a/c/n\",\"value\":null},{\"op\":\"move\",\"from\":\"/d\",\"path\":\"/a/d\"}," +
+                "{\"op\":\"copy\",\"from\":\"/a/b\",\"path\":\"/e\"},{\"op\":\"test\",\"path\":\"/e/2\",\"value\":4}]");
+        JsonNode expected = JsonHelper.parse("{\"a\":{\"b\":[2,3,4],\"c\":{\"n\":null},\"d\":1},\"e\":[2,3,4]}");
+        final String original = target.toString();
+
+        assertEquals(expected, JsonHelper.applyPatch(target, patch, true));
+        assertEquals(original, target.toString());
+        assertEquals(expected, JsonHelper.applyPatch(target, patch, false));
+        assertEquals(expected, target);
+
+        // failed atomic patch leaves the target untouched
+        target = JsonHelper.parse(original);
+        try {
+            JsonHelper.applyPatch(target, JsonHelper.parse("[{\"op\":\"remove\",\"path\":\"/d\"}," +
+                    "{\"op\":\"remove\",\"path\":\"/a/b/3\"}]"), true);
+            fail();
+        } catch (UtilsException e) {
+            assertEquals(UtilsException.Type.NOT_FOUND, e.type);
+        }
+        assertEquals(original, target.toString());
+    }
+
+    @Test
+    public void testMergePatch() throws Exception {
+        JsonNode target = JsonHelper.parse("{\"a\":\"b\",\"c\":{\"d\":\"e\",\"f\":\"g\"}}");
+        JsonNode patch = JsonHelper.parse("{\"a\":\"z\",\"c\":{\"f\":null},\"h\":[1]}");
+        JsonNode expected = JsonHelper.parse("{\"a\":\"z\",\"c\":{\"d\":\"e\"},\"h\":[1]}");
+        final String original = target.toString();
+        assertEquals(expected, JsonHelper.applyMergePatch(target, patch, true));
+        assertEquals(original, target.toString());
+        assertEquals(expected, JsonHelper.applyMergePatch(target, patch, false));
+        assertEquals(expected, target);
+    }
+
+    /**
+     * Patch produced by diff transforms the first tree to the second one
+     */
+    @Test
+    public void testDiffPatchRoundTrip() throws Exception {
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            JsonNode a = randomNode(random, 3);
+            JsonNode b = mutate(a.deepCopy(), random);
+            JsonNode patch = JsonHelper.diff(a, b);
+            assertEquals(patch.toString(), b, JsonHelper.applyPatch(a, patch, true));
+            assertEquals(b, JsonHelper.applyPatch(a.deepCopy(), patch, false));
+        }
+    }
+
+    @Test
+    public void testJsonPath() throws Exception {
+        JsonNode j = JsonHelper.parse("{\"a\":{\"b\":[0,1,2,{\"c\":\"x\",\"3\":4}]},\"d/e\":true}");
+        assertEquals("x", JsonHelper.compilePath("a.b[3].c").getString(j));
+        assertEquals("x", JsonHelper.compilePath("/a/b/3/c").getString(j));
+        assertEquals(4, JsonHelper.compilePath("/a/b/3/3").getInteger(j));
+        assertEquals(2, JsonHelper.compilePath("a.b[2]").getInteger(j));
+        assertEquals(true, JsonHelper.compilePath("/d~1e").getBoolean(j, false));
+        assertEquals(j, JsonHelper.compilePath("").get(j));
+        assertEquals(null, JsonHelper.compilePath("a.b[4].c").find(j));
+        assertEquals(null, JsonHelper.compilePath("a[0]").find(j));
+        assertEquals("y", JsonHelper.compilePath("a.c").getString(j, "y"));
+        try {
+            JsonHelper.compilePath("a.b[0]").getString(j);
+            fail();
+        } catch (ParseException e) {
+            // not textual
+        }
+        for (String bad : new String[]{"a..b", "a.", "a[x]", "a[1"}) {
+            try {
+                JsonHelper.compilePath(bad);
+                fail(bad);
+            } catch (ParseException e) {
+                // malformed
+            }
+        }
+    }
+
+    @Test
+    public void testParseArrayParallel() throws Exception {
+        final StringBuilder sb = new StringBuilder("\n[ ");
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i == 0 ? "" : " ,\n").append("{\"i\":").append(i).append(",\"s\":\"a,]}\\\"[{\",\"a\":[1,[2]]}");
+        }
+        sb.append("]\n");
+        File f = File.createTempFile("parallel", ".json");
+        f.deleteOnExit();
+        ResourceHelper.writeFile(f, sb.toString());
+        final JsonNode expected = JsonHelper.parse(f);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // small chunks make the parser split the file in many parts
+            ParallelArrayParser parser = new ParallelArrayParser(JsonHelper.mapper, pool, 100);
+            final ArrayNode ordered = JsonHelper.newArrayNode();
+            assertEquals(2000, parser.parse(f.toPath(), new NodeConsumer() {
+                @Override
+                public void accept(JsonNode node) {
+                    ordered.add(node);
+                }
+            }, true));
+            assertEquals(expected, ordered);
+
+            final Set<JsonNode> all = new HashSet<JsonNode>();
+            for (JsonNode j : ordered) {
+                all.add(j);
+            }
+            final Set<JsonNode> unordered = Collections.synchronizedSet(new HashSet<JsonNode>());
+            assertEquals(2000, parser.parse(f.toPath(), new NodeConsumer() {
+                @Override
+                public void accept(JsonNode node) {
+                    unordered.add(node);
+                }
+            }, false));
+            assertEquals(all, unordered);
+        } finally {
+            pool.shutdown();
+        }
+        final NodeConsumer ignore = new NodeConsumer() {
+            @Override
+            public void accept(JsonNode node) {
+            }
+        };
+        assertEquals(2000, JsonHelper.parseArrayParallel(f.toPath(), ignore, true));
+
+        final byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '[', '1', ']'};
+        Files.write(f.toPath(), bom);
+        assertEquals(1, JsonHelper.parseArrayParallel(f.toPath(), ignore, true));
+        for (byte[] bad : new byte[][]{"[1}".getBytes(), "[{\"a\":[1}]".getBytes(), "[1] x".getBytes(), "[1]]".getBytes(),
+                {(byte) 0xBB, (byte) 0xEF, (byte) 0xBF, '[', ']'}, {(byte) 0xEF, (byte) 0xBB, '[', ']'}}) {
+            Files.write(f.toPath(), bad);
+            try {
+                JsonHelper.parseArrayParallel(f.toPath(), ignore, true);
+                fail(new String(bad));
+            } catch (UtilsException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testLines() throws Exception {
+        final List<JsonNode> records = new ArrayList<JsonNode>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NdJsonWriter writer = new NdJsonWriter(JsonHelper.mapper, out, 100);
+        for (int i = 0; i < 500; i++) {
+            JsonNode j = JsonHelper.parse("{\"i\":" + i + ",\"s\":\"line\\nbreak\",\"a\":[" + i + ",{}]}");
+            records.add(j);
+            writer.write(j);
+        }
+        writer.writeValue(Collections.singletonMap("last", true));
+        records.add(JsonHelper.parse("{\"last\":true}"));
+        writer.close();
+        final String text = new String(out.toByteArray(), "UTF-8");
+        assertEquals(501, text.split("\n").length);
+        assertTrue(text.endsWith("}\n"));
+        assertEquals(records.get(0).toString() + "\n", text.substring(0, text.indexOf('\n') + 1));
+
+        final List<JsonNode> sequential = new ArrayList<JsonNode>();
+        assertEquals(501, JsonHelper.parseLines(new ByteArrayInputStream(("\n" + text + "\n").getBytes("UTF-8")), new NodeConsumer() {
+            @Override
+            public void accept(JsonNode node) {
+                sequential.add(node);
+            }
+        }));
+        assertEquals(records, sequential);
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            final List<JsonNode> parallel = new ArrayList<JsonNode>();
+            // batches smaller than a line have to grow
+            assertEquals(501, NdJsonReader.read(JsonHelper.mapper, new ByteArrayInputStream(out.toByteArray()), new NodeConsumer() {
+                @Override
+                public void accept(JsonNode node) {
+                    parallel.add(node);
+                }
+            }, pool, 16));
+            assertEquals(records, parallel);
+
+            // lines are numbered across batches
+            for (String bad : new String[]{"{}\n{]\n", "{}\n\n{}\n{} {}\n", "{}\n{\"a\":\n1}\n"}) {
+                for (int batchSize : new int[]{1024, 4}) {
+                    try {
+                        NdJsonReader.read(JsonHelper.mapper, new ByteArrayInputStream(bad.getBytes("UTF-8")), new NodeConsumer() {
+                            @Override
+                            public void accept(JsonNode node) {
+                            }
+                        }, pool, batchSize);
+                        fail(bad);
+                    } catch (UtilsException e) {
+                        assertEquals(UtilsException.Type.PARSING, e.type);
+                        assertTrue(e.getMessage(), e.getMessage().contains("line " + (bad.startsWith("{}\n\n") ? 4 : 2)));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        for (String bad : new String[]{"{}\n{]\n", "{}\n\n{}\n{} {}\n", "{}\n{\"a\":\n1}\n"}) {
+            NdJsonReader reader = JsonHelper.newLinesReader(new ByteArrayInputStream(bad.getBytes("UTF-8")));
+            assertEquals(JsonHelper.newObjectNode(), reader.next());
+            try {
+                JsonNode j;
+                while ((j = reader.next()) != null) {
+                    assertEquals(JsonHelper.newObjectNode(), j);
+                }
+                fail(bad);
+            } catch (UtilsException e) {
+                assertEquals(UtilsException.Type.PARSING, e.type);
+                assertTrue(e.getMessage(), e.getMessage().contains("line " + (bad.startsWith("{}\n\n") ? 4 : 2)));
+            }
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        final StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x3000; c++) {
+            all.append(c);
+            assertEquals(new TextNode(String.valueOf(c)).toString(), JsonHelper.jsonify(String.valueOf(c)));
+        }
+        final String text = "plain " + all + " tail";
+        final String expected = new TextNode(text).toString();
+        assertEquals(expected, JsonEscaper.quote(text));
+        assertEquals("\"plain\"", JsonEscaper.quote("plain"));
+
+        StringWriter writer = new StringWriter();
+        JsonEscaper.appendQuoted(writer, text);
+        assertEquals(expected, writer.toString());
+        StringBuilder sb = new StringBuilder();
+        JsonEscaper.appendQuoted(sb, ("__" + text + "__").toCharArray(), 2, text.length());
+        assertEquals(expected, sb.toString());
+
+        JsonEscaper escaper = new JsonEscaper(2);
+        sb.setLength(0);
+        for (String key : new String[]{"a", "b\"", "c\n", "a", "c\n"}) {
+            escaper.appendKey(sb, key);
+        }
+        assertEquals("\"a\"\"b\\\"\"\"c\\n\"\"a\"\"c\\n\"", sb.toString());
+    }
+
+    @Test
+    public void testIndexedArrayView() throws Exception {
+        ArrayNode array = JsonHelper.convertToArrayNode("read", "write", "admin");
+        array.add(5);
+        IndexedArrayView view = JsonHelper.indexed(array);
+        assertTrue(view.contains("write"));
+        assertFalse(view.contains("5"));
+        assertFalse(view.contains(null));
+        assertTrue(view.containsAll(Arrays.asList("read", "admin")));
+        assertFalse(view.containsAll(Arrays.asList("read", "delete")));
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("admin", "read")),
+                view.intersect(Arrays.asList("admin", "delete", "read")));
+
+        view.add("delete");
+        assertTrue(view.contains("delete"));
+        assertTrue(JsonHelper.contains(array, "delete"));
+        array.add("write");
+        assertTrue(view.remove("write"));
+        assertFalse(view.contains("write"));
+        assertFalse(JsonHelper.contains(array, "write"));
+        assertFalse(view.remove("write"));
+
+        // direct modification changing the size is noticed
+        array.add("direct");
+        assertTrue(view.contains("direct"));
+        // same size, has to be invalidated
+        array.set(0, TextNode.valueOf("replaced"));
+        view.invalidate();
+        assertTrue(view.contains("replaced"));
+        assertFalse(view.contains("read"));
+
+        // stale index is not patched by remove
+        view = JsonHelper.indexed(JsonHelper.convertToArrayNode("a", "b", "y"));
+        assertTrue(view.contains("y"));
+        view.getArray().add("x");
+        assertTrue(view.remove("y"));
+        assertTrue(view.contains("x"));
+        assertFalse(view.contains("y"));
+        assertTrue(view.containsAll(Arrays.asList("a", "b", "x")));
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        final JsonNode json = JsonHelper.parse(JSON);
+        final byte[] binary = JsonHelper.serializeBinary(json);
+        assertTrue(JsonHelper.isBinary(binary));
+        assertFalse(JsonHelper.isBinary(JSON.getBytes("UTF-8")));
+        assertEquals(json, JsonHelper.parseBinary(binary));
+        assertEquals(json, JsonHelper.parseBinary(new ByteArrayInputStream(binary)));
+        assertEquals(json, JsonHelper.parse(binary));
+        assertEquals(json, JsonHelper.parse(JSON.getBytes("UTF-8")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonHelper.serializeBinary(json, out);
+        JsonHelper.serializeBinary(json, out);
+        assertEquals(binary.length * 2, out.size());
+
+        final Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            JsonNode j = randomNode(random, 4);
+            assertEquals(j, JsonHelper.parse(JsonHelper.serializeBinary(j)));
+        }
+
+        ConfigLoader config = ConfigLoader.loadJsonBytes(JsonHelper.serializeBinary(JsonHelper.parse("{\"a\":\"b\",\"n\":{\"i\":3}}")));
+        assertEquals("b", config.getString("a"));
+        assertEquals(3, config.getConfig("n").getInteger("i"));
+        assertEquals("b", ConfigLoader.loadBinary(new ByteArrayInputStream(JsonHelper.serializeBinary(
+                JsonHelper.newObjectNode("a", TextNode.valueOf("b"))))).getString("a"));
+        try {
+            ConfigLoader.loadBinary(JsonHelper.serializeBinary(JsonHelper.newArrayNode()));
+            fail();
+        } catch (UtilsException ignored) {
+        }
+    }
+
+    @Test
+    public void testProfiles() throws Exception {
+        assertEquals(JsonHelper.PROFILE_STRICT, JsonHelper.getProfile("strict"));
+        final String duplicate = "{\"a\":1,\"a\":2}";
+        assertEquals(JsonHelper.parse("{\"a\":2}"), JsonHelper.PROFILE_DEFAULT.parse(duplicate));
+        try {
+            JsonHelper.PROFILE_STRICT.parse(duplicate);
+            fail();
+        } catch (UtilsException e) {
+            assertEquals(UtilsException.Type.PARSING, e.type);
+        }
+        try {
+            JsonHelper.PROFILE_STRICT.parse(duplicate.getBytes("UTF-8"));
+            fail();
+        } catch (UtilsException ignored) {
+        }
+
+        final String lenient = "{a: 'b', /* comment */ \"c\": NaN}";
+        assertEquals("b", JsonHelper.PROFILE_LENIENT.parse(lenient).get("a").textValue());
+        try {
+            JsonHelper.PROFILE_DEFAULT.parse(lenient);
+            fail();
+        } catch (UtilsException ignored) {
+        }
+        // the shared mapper is not affected
+        try {
+            JsonHelper.parse(lenient);
+            fail();
+        } catch (UtilsException ignored) {
+        }
+
+        JsonProfile indented = JsonHelper.registerProfile(JsonHelper.PROFILE_DEFAULT.named("indented")
+                .with(SerializationFeature.INDENT_OUTPUT, true));
+        assertEquals(indented, JsonHelper.getProfile("indented"));
+        assertEquals("{\"a\":1}", JsonHelper.PROFILE_DEFAULT.serialize(JsonHelper.parse("{\"a\":1}")));
+        assertTrue(indented.serialize(JsonHelper.parse("{\"a\":1}")).contains("\n"));
+        assertEquals("default", JsonHelper.PROFILE_DEFAULT.getName());
+        try {
+            JsonHelper.registerProfile(JsonHelper.PROFILE_LENIENT.named("default"));
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        assertEquals(JsonHelper.PROFILE_DEFAULT, JsonHelper.getProfile("default"));
+
+        // later changes of the mapper factory are not visible to profiles
+        JsonHelper.mapper.configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, true);
+        try {
+            JsonHelper.PROFILE_DEFAULT.parse("{'a':1}");
+            fail();
+        } catch (UtilsException ignored) {
+        } finally {
+            JsonHelper.mapper.configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, false);
+        }
+        try {
+            JsonHelper.getProfile("missing");
+            fail();
+        } catch (UtilsException e) {
+            assertEquals(UtilsException.Type.NOT_FOUND, e.type);
+        }
+    }
+
+    @Test
+    public void testHashAndIntern() throws Exception {
+        final JsonNode a = JsonHelper.parse("{\"x\":1,\"y\":[\"a\",{\"b\":true}],\"z\":{\"k\":\"v\"}}");
+        final JsonNode b = JsonHelper.parse("{\"z\":{\"k\":\"v\"},\"y\":[\"a\",{\"b\":true}],\"x\":1}");
+        final JsonNode c = JsonHelper.parse("{\"x\":1,\"y\":[{\"b\":true},\"a\"],\"z\":{\"k\":\"v\"}}");
+        assertEquals(JsonHelper.hash(a), JsonHelper.hash(b));
+        assertFalse(JsonHelper.hash(a) == JsonHelper.hash(c));
+        assertFalse(JsonHelper.hash(IntNode.valueOf(1)) == JsonHelper.hash(JsonHelper.parse("1.0")));
+
+        JsonInterner interner = new JsonInterner();
+        final JsonNode ia = interner.intern(a);
+        final JsonNode ib = interner.intern(b);
+        final JsonNode ic = interner.intern(c);
+        assertEquals(a, ia);
+        assertEquals(c, ic);
+        assertTrue(ia == ib);
+        assertTrue(ia.get("z") == ic.get("z"));
+        assertTrue(ia.get("y").get(1) == ic.get("y").get(0));
+        assertFalse(ia.get("y") == ic.get("y"));
+        // containers are copied, arguments are not modified
+        assertFalse(a.get("z") == ia.get("z"));
+        assertEquals(JsonHelper.parse("{\"k\":\"v\"}"), b.get("z"));
+        assertTrue(interner.getHits() > 0);
+        final int size = interner.size();
+
+        final Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            JsonNode j = randomNode(random, 4);
+            JsonNode interned = interner.intern(j);
+            assertEquals(j, interned);
+            assertEquals(JsonHelper.hash(j), JsonHelper.hash(interned));
+            assertTrue(interned == interner.intern(j.deepCopy()));
+        }
+        assertTrue(interner.size() > size);
+
+        JsonInterner small = new JsonInterner(2);
+        assertEquals(a, small.intern(a));
+        assertEquals(2, small.size());
+    }
+
+    private static JsonNode randomNode(Random random, int depth) {
+        switch (depth <= 0 ? random.nextInt(3) : random.nextInt(5)) {
+            case 0:
+                return new IntNode(random.nextInt(5));
+            case 1:
+                return new TextNode("t" + random.nextInt(3));
+            case 2:
+                return NullNode.getInstance();
+            case 3: {
+                ArrayNode ret = JsonHelper.newArrayNode();
+                for (int k = random.nextInt(6); k > 0; k--) {
+                    ret.add(randomNode(random, depth - 1));
+                }
+                return ret;
+            }
+            default: {
+                ObjectNode ret = JsonHelper.newObjectNode();
+                for (int k = random.nextInt(5); k > 0; k--) {
+                    ret.set("k" + random.nextInt(6), randomNode(random, depth - 1));
+                }
+                return ret;
+            }
+        }
+    }
+
+    private static JsonNode mutate(JsonNode node, Random random) {
+        if (random.nextInt(6) == 0) {
+            return randomNode(random, 2);
+        }
+        if (node.isArray()) {
+            ArrayNode a = (ArrayNode) node;
+            for (int k = 0; k < a.size(); k++) {
+                a.set(k, mutate(a.get(k), random));
+            }
+            if (a.size() > 0 && random.nextBoolean()) {
+                a.remove(random.nextInt(a.size()));
+            }
+            if (random.nextBoolean()) {
+                a.insert(random.nextInt(a.size() + 1), randomNode(random, 1));
+            }
+        } else if (node.isObject()) {
+            ObjectNode o = (ObjectNode) node;
+            List<String> names = new ArrayList<String>();
+            Iterator<String> i = o.fieldNames();
+            while (i.hasNext()) {
+                names.add(i.next());
+            }
+            for (String n : names) {
+                o.set(n, mutate(o.get(n), random));
+            }
+            if (!names.isEmpty() && random.nextBoolean()) {
+                o.remove(names.get(random.nextInt(names.size())));
+            }
+            if (random.nextBoolean()) {
+                o.set("n" + random.nextInt(3), randomNode(random, 1));
+            }
+        }
+        return node;
+    }
+}
@@ -0,0 +1,140 @@
+package org.repetti.utils.test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.MongoClient;
+import com.mongodb.WriteConcern;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.repetti.utils.DatabaseException;
+import org.repetti.utils.MongoBatchWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes the driver would reject fail on their own, without a server: bulk operations are checked the way the driver
+ * does before sending them
+ * <p/>
+ * Date: 17/10/26
+ *
+ * @author repetti
+ */
+public class MongoBatchWriterTest {
+
+    @Test
+    public void testInvalidDocuments() throws Exception {
+        final MongoClient client = new MongoClient("localhost");
+        final Checking writer = new Checking();
+        try {
+            final DBCollection collection = client.getDB("test").getCollection("batch");
+            final List<Future<?>> valid = new ArrayList<Future<?>>();
+            final List<Future<?>> invalid = new ArrayList<Future<?>>();
+            valid.add(writer.put(collection, new BasicDBObject("a", 1)));
+            invalid.add(writer.put(collection, new BasicDBObject("a.b", 1)));
+            invalid.add(writer.put(collection, new BasicDBObject("$a", 1)));
+            valid.add(writer.update(collection, "id", new BasicDBObject("a", 2)));
+            invalid.add(writer.put(collection, new BasicDBObject("a", new BasicDBObject("b.c", 1))));
+            invalid.add(writer.put(collection, new BasicDBObject("a", new Object())));
+            invalid.add(writer.update(collection, "id", new BasicDBObject("a", new Object())));
+            valid.add(writer.remove(collection, "id"));
+            writer.flush();
+
+            // one rejected bulk, then every write alone
+            assertEquals(1 + valid.size() + invalid.size(), writer.bulks);
+            assertEquals(valid.size(), writer.sent);
+            for (Future<?> f : valid) {
+                assertTrue(f.isDone());
+                f.get(1, TimeUnit.SECONDS);
+            }
+            for (Future<?> f : invalid) {
+                assertFailed(f, DatabaseException.Type.PARAMETERS);
+            }
+        } finally {
+            writer.close();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        final MongoClient client = new MongoClient("localhost");
+        final Checking writer = new Checking();
+        try {
+            final DBCollection collection = client.getDB("test").getCollection("batch");
+            final Future<?> before = writer.put(collection, new BasicDBObject("a", 1));
+            writer.close();
+            before.get(1, TimeUnit.SECONDS);
+            assertEquals(1, writer.sent);
+
+            // not buffered, no flush would ever send them
+            assertFailed(writer.put(collection, new BasicDBObject("a", 1)), DatabaseException.Type.RUNTIME);
+            assertFailed(writer.update(collection, "id", new BasicDBObject("a", 2)), DatabaseException.Type.RUNTIME);
+            assertFailed(writer.remove(collection, "id"), DatabaseException.Type.RUNTIME);
+            writer.flush();
+            assertEquals(1, writer.sent);
+        } finally {
+            writer.close();
+            client.close();
+        }
+    }
+
+    private static void assertFailed(Future<?> f, DatabaseException.Type type) throws InterruptedException {
+        assertTrue(f.isDone());
+        try {
+            f.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(type, ((DatabaseException) e.getCause()).type);
+        } catch (TimeoutException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Rejects the whole bulk when one of its documents is invalid, counts writes of accepted bulks
+     */
+    private static class Checking extends MongoBatchWriter {
+        private int bulks = 0;
+        private int sent = 0;
+
+        private Checking() {
+            super(10, 60000, WriteConcern.SAFE);
+        }
+
+        @Override
+        protected void execute(@NotNull DBCollection dbCollection, @NotNull BulkWriteOperation bulk,
+                               @NotNull List<DBObject> documents) {
+            bulks++;
+            for (DBObject o : documents) {
+                if (o != null) {
+                    checkKeys(o, true);
+                    new DefaultDBEncoder().encode(o);
+                }
+            }
+            sent += documents.size();
+        }
+
+        private static void checkKeys(DBObject o, boolean top) {
+            for (String key : o.keySet()) {
+                if (key.contains(".") || (key.startsWith("$") && !(top && key.equals("$set")))) {
+                    throw new IllegalArgumentException("Bad Key: '" + key + "'");
+                }
+                if (o.get(key) instanceof DBObject) {
+                    checkKeys((DBObject) o.get(key), false);
+                }
+            }
+        }
+    }
+}